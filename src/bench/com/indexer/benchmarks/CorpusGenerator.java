@@ -0,0 +1,113 @@
+package com.indexer.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Generates synthetic text documents whose word frequencies follow a Zipf
+ * distribution, so benchmarks can run without the test documents.
+ *
+ * Generation is seeded, so a document of a given size is always identical.
+ */
+public class CorpusGenerator {
+    private static final int VOCABULARY_SIZE = 100_000;
+    private static final double ZIPF_EXPONENT = 1.07;
+    private static final long SEED = 42;
+    private static final byte[][] SEPARATORS = {
+        " ".getBytes(StandardCharsets.US_ASCII), " ".getBytes(StandardCharsets.US_ASCII),
+        " ".getBytes(StandardCharsets.US_ASCII), ", ".getBytes(StandardCharsets.US_ASCII),
+        ". ".getBytes(StandardCharsets.US_ASCII), "\n".getBytes(StandardCharsets.US_ASCII),
+        " - ".getBytes(StandardCharsets.US_ASCII), " 1984 ".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private final byte[][] vocabulary;
+    private final double[] cumulativeProbabilities;
+
+    public CorpusGenerator() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        vocabulary = new byte[VOCABULARY_SIZE][];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            byte[] word = new byte[2 + random.nextInt(10)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (byte) ('a' + random.nextInt(26));
+            }
+            if (random.nextInt(10) == 0) word[0] -= 'a' - 'A';
+            vocabulary[i] = word;
+        }
+
+        cumulativeProbabilities = new double[VOCABULARY_SIZE];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulativeProbabilities[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+    }
+
+    /**
+     * Writes a document of at least the given size, unless a file of that
+     * size already exists.
+     *
+     * @param path the document to create
+     * @param sizeInBytes the size of the document
+     * @throws IOException if the document cannot be written
+     */
+    public void generate(Path path, long sizeInBytes) throws IOException {
+        if (Files.exists(path) && Files.size(path) >= sizeInBytes) return;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+
+        SplittableRandom random = new SplittableRandom(SEED ^ sizeInBytes);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 20)) {
+            long written = 0;
+            while (written < sizeInBytes) {
+                byte[] word = vocabulary[nextWordRank(random)];
+                byte[] separator = SEPARATORS[random.nextInt(SEPARATORS.length)];
+                out.write(word);
+                out.write(separator);
+                written += word.length + separator.length;
+            }
+        }
+    }
+
+    /**
+     * Returns the rank of a word drawn from the Zipf distribution.
+     */
+    public int nextWordRank(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, VOCABULARY_SIZE - 1);
+    }
+
+    public String word(int rank) {
+        return new String(vocabulary[rank], StandardCharsets.US_ASCII).toLowerCase();
+    }
+
+    /**
+     * Creates a temporary directory for generated documents, outside of
+     * {@code docs} so that the corpus commands never see them.
+     */
+    public static Path createDirectory() throws IOException {
+        return Files.createTempDirectory("indexer-bench-");
+    }
+
+    /**
+     * Deletes a directory created by {@link #createDirectory()} and the documents in it.
+     */
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (directory == null) return;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+}
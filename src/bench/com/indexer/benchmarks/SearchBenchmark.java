@@ -0,0 +1,87 @@
+package com.indexer.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.indexer.models.SearchResult;
+import com.indexer.structures.SearchEngine;
+import com.indexer.utils.TermMatcher;
+
+/**
+ * Measures the latency of a two-term search over generated documents without
+ * a saved index: each document is scanned for the terms, then every document
+ * is ranked by TF-IDF.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+    private static final long MEGABYTE = 1 << 20;
+
+    @Param({"64"})
+    public int sizeInMegabytes;
+
+    @Param({"3"})
+    public int documentCount;
+
+    private Path directory;
+    private Path[] documents;
+    private String[] names;
+    private String[] terms;
+
+    @Setup(Level.Trial)
+    public void generateDocuments() throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        terms = new String[] {generator.word(10), generator.word(500)};
+        directory = CorpusGenerator.createDirectory();
+        documents = new Path[documentCount];
+        names = new String[documentCount];
+        for (int i = 0; i < documentCount; i++) {
+            names[i] = "bench_" + sizeInMegabytes + "mb_" + i + ".txt";
+            documents[i] = directory.resolve(names[i]);
+            // Documents of different sizes are generated from different seeds
+            generator.generate(documents[i], sizeInMegabytes * MEGABYTE + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDocuments() throws IOException {
+        CorpusGenerator.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public SearchResult[] search() throws IOException {
+        long[] documentLengths = new long[documents.length];
+        int[][] termCounts = new int[documents.length][terms.length];
+        for (int d = 0; d < documents.length; d++) {
+            try (FileChannel channel = FileChannel.open(documents[d], StandardOpenOption.READ)) {
+                TermMatcher matcher = TermMatcher.scan(channel, terms);
+                for (int t = 0; t < terms.length; t++) {
+                    termCounts[d][t] = matcher.getCount(t);
+                }
+                documentLengths[d] = matcher.getTotalTokenCount();
+            }
+        }
+        return SearchEngine.search(names, documentLengths, termCounts);
+    }
+}
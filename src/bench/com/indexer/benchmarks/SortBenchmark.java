@@ -0,0 +1,82 @@
+package com.indexer.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.indexer.enums.SortAlgorithm;
+import com.indexer.models.HashEntry;
+import com.indexer.structures.WordCountTable;
+
+/**
+ * Measures ranking a whole vocabulary with every {@link SortAlgorithm}, for
+ * Zipfian, uniform and pre-sorted count distributions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SortBenchmark {
+    @Param({"HEAPSORT", "MERGESORT", "QUICKSORT", "SHELLSORT", "PARALLEL_MERGESORT", "PARALLEL_QUICKSORT"})
+    public SortAlgorithm algorithm;
+
+    @Param({"zipf", "uniform", "presorted"})
+    public String distribution;
+
+    @Param({"500000"})
+    public int size;
+
+    private WordCountTable table;
+
+    @Setup(Level.Trial)
+    public void countWords() {
+        table = counts(distribution, size);
+    }
+
+    @Benchmark
+    public HashEntry[] sort() {
+        return algorithm.sort(table);
+    }
+
+    /**
+     * Returns a table of distinct words whose counts follow the given distribution.
+     */
+    static WordCountTable counts(String distribution, int size) {
+        SplittableRandom random = new SplittableRandom(11);
+        WordCountTable table = WordCountTable.withPrivateDictionary();
+        table.ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            int count;
+            switch (distribution) {
+                case "zipf":
+                    count = (int) (1_000_000 / Math.pow(random.nextInt(size) + 1, 1.07));
+                    break;
+                case "uniform":
+                    count = random.nextInt(1_000_000);
+                    break;
+                case "presorted":
+                    count = size - i;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown distribution: " + distribution);
+            }
+            table.increment("w" + i, Math.max(1, count));
+        }
+        table.finishResize();
+        return table;
+    }
+}
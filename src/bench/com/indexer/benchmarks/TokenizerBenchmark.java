@@ -0,0 +1,72 @@
+package com.indexer.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.indexer.structures.ParallelWordCounter;
+import com.indexer.structures.WordFrequencyIndexer;
+
+/**
+ * Measures how long counting every word of a generated document takes, on
+ * one thread through the streaming reader or on several threads through
+ * memory-mapped chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenizerBenchmark {
+    private static final long MEGABYTE = 1 << 20;
+
+    @Param({"64", "256", "1024"})
+    public int sizeInMegabytes;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path directory;
+    private Path document;
+
+    @Setup(Level.Trial)
+    public void generateDocument() throws IOException {
+        directory = CorpusGenerator.createDirectory();
+        document = directory.resolve("bench_" + sizeInMegabytes + "mb.txt");
+        new CorpusGenerator().generate(document, sizeInMegabytes * MEGABYTE);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDocument() throws IOException {
+        CorpusGenerator.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public long populate() throws IOException {
+        if (threads > 1) {
+            return ParallelWordCounter.count(document, threads).getTotalCount();
+        }
+        WordFrequencyIndexer indexer = new WordFrequencyIndexer();
+        try (FileChannel channel = FileChannel.open(document, StandardOpenOption.READ)) {
+            indexer.populateFromChannel(document.getFileName().toString(), channel);
+        }
+        return indexer.getTotalTokenCount();
+    }
+}
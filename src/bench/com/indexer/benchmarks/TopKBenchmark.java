@@ -0,0 +1,53 @@
+package com.indexer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.indexer.models.HashEntry;
+import com.indexer.sorting_algorithms.TopKSelection;
+import com.indexer.structures.WordCountTable;
+
+/**
+ * Measures selecting the K most frequent words of a vocabulary, on the same
+ * count distributions as {@link SortBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TopKBenchmark {
+    @Param({"zipf", "uniform", "presorted"})
+    public String distribution;
+
+    @Param({"500000"})
+    public int size;
+
+    @Param({"10"})
+    public int k;
+
+    private WordCountTable table;
+
+    @Setup(Level.Trial)
+    public void countWords() {
+        table = SortBenchmark.counts(distribution, size);
+    }
+
+    @Benchmark
+    public HashEntry[] selectTopK() {
+        return TopKSelection.selectTopK(table, k);
+    }
+}
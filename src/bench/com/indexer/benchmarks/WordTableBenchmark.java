@@ -0,0 +1,94 @@
+package com.indexer.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.indexer.models.HashEntry;
+import com.indexer.structures.WordCountTable;
+import com.indexer.structures.WordFrequencyIndexer;
+
+/**
+ * Measures word table insertions and lookups of Zipf-distributed words, and
+ * top-K queries on the table of a generated document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WordTableBenchmark {
+    private static final long MEGABYTE = 1 << 20;
+    private static final int OPERATIONS = 1_000_000;
+
+    @Param({"64"})
+    public int sizeInMegabytes;
+
+    private String[] words;
+    private WordFrequencyIndexer indexer;
+
+    @Setup(Level.Trial)
+    public void countDocument() throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        SplittableRandom random = new SplittableRandom(7);
+        words = new String[OPERATIONS];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = generator.word(generator.nextWordRank(random));
+        }
+
+        // Only the counts are kept, so the document is deleted as soon as it has been read
+        Path directory = CorpusGenerator.createDirectory();
+        try {
+            Path document = directory.resolve("bench_" + sizeInMegabytes + "mb.txt");
+            generator.generate(document, sizeInMegabytes * MEGABYTE);
+            indexer = new WordFrequencyIndexer();
+            try (FileChannel channel = FileChannel.open(document, StandardOpenOption.READ)) {
+                indexer.populateFromChannel(document.getFileName().toString(), channel);
+            }
+        } finally {
+            CorpusGenerator.deleteDirectory(directory);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public WordCountTable put() {
+        WordCountTable table = new WordCountTable();
+        for (String word : words) {
+            table.increment(word, 1);
+        }
+        return table;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public void getWordFrequency(Blackhole blackhole) {
+        for (String word : words) {
+            blackhole.consume(indexer.getWordFrequency(word));
+        }
+    }
+
+    @Benchmark
+    public HashEntry[] getTopFrequencies() {
+        return indexer.getTopFrequencies(10);
+    }
+}
@@ -1,101 +1,365 @@
 package com.indexer;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.function.LongConsumer;
 
+import com.indexer.metrics.Metrics;
 import com.indexer.models.HashEntry;
+import com.indexer.models.SearchResult;
+import com.indexer.server.QueryBatch;
+import com.indexer.server.QueryServer;
+import com.indexer.server.ShardCoordinator;
+import com.indexer.server.ShardWorker;
+import com.indexer.structures.HeavyHitterSketch;
+import com.indexer.structures.IndexStore;
+import com.indexer.structures.PositionalIndex;
+import com.indexer.structures.QueryCache;
+import com.indexer.structures.SearchEngine;
 import com.indexer.structures.WordFrequencyIndexer;
 import com.indexer.utils.ArgumentValidator;
+import com.indexer.utils.ResultFormatter;
+import com.indexer.utils.TermMatcher;
+import com.indexer.utils.WordTokenizer;
 
 public class Main {
+    private static final String STANDARD_INPUT = "-";
+
+    private static int parallelism = 1;
+    private static long snapshotIntervalMillis;
+    private static long memoryBudget;
+    private static QueryCache cache;
+    private static boolean printMetrics;
+    private static int[] shardPorts;
 
     public static void main(String[] args) throws IOException {
         long startTime = System.currentTimeMillis();
 
+        try {
+            args = parseGlobalOptions(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+
         if (args.length == 0) {
-            System.out.println("Usage: [--freq | --freq-word | --search] [parameters]");
+            System.out.println("Usage: [--threads N] [--snapshot-interval SECONDS] [--memory-budget MB] [--cache] [--metrics json|jmx] [--shards PORT,...] [--freq | --freq-word | --search | --build-index | --serve | --batch | --shard-worker] [parameters]");
             return;
         }
 
         String option = args[0];
         try {
-            switch (option) {
-                case "--freq":
-                    ArgumentValidator.validateFreqArguments(args);
-                    handleFreqOption(args);
-                    break;
-                case "--freq-word":
-                    ArgumentValidator.validateFreqWordArguments(args);
-                    handleFreqWordOption(args);
-                    break;
-                case "--search":
-                    ArgumentValidator.validateSearchArguments(args);
-                    handleSearchOption(args);
-                    break;
-                default:
-                    System.out.println("Invalid option. Use --freq, --freq-word, or --search.");
+            if (shardPorts != null) {
+                ArgumentValidator.validateShardedArguments(args);
+                handleShardedOption(args);
+            } else {
+                switch (option) {
+                    case "--freq":
+                        ArgumentValidator.validateFreqArguments(args);
+                        handleFreqOption(args);
+                        break;
+                    case "--freq-word":
+                        ArgumentValidator.validateFreqWordArguments(args);
+                        handleFreqWordOption(args);
+                        break;
+                    case "--search":
+                        ArgumentValidator.validateSearchArguments(args);
+                        handleSearchOption(args);
+                        break;
+                    case "--build-index":
+                        ArgumentValidator.validateBuildIndexArguments(args);
+                        handleBuildIndexOption(args);
+                        break;
+                    case "--serve":
+                        ArgumentValidator.validateServeArguments(args);
+                        handleServeOption(args);
+                        break;
+                    case "--batch":
+                        ArgumentValidator.validateBatchArguments(args);
+                        handleBatchOption(args);
+                        break;
+                    case "--shard-worker":
+                        ArgumentValidator.validateShardWorkerArguments(args);
+                        handleShardWorkerOption(args);
+                        break;
+                    default:
+                        System.out.println("Invalid option. Use --freq, --freq-word, --search, --build-index, --serve, --batch, or --shard-worker.");
+                }
             }
-        } catch (IllegalArgumentException | IOException e) {
+            if (cache != null) {
+                cache.save();
+                System.out.print(ResultFormatter.formatCacheStatistics(cache.getHitCount(), cache.getMissCount(),
+                        cache.getEvictionCount(), cache.size()));
+            }
+        } catch (IllegalArgumentException | IOException | UncheckedIOException e) {
             System.err.println("Error: " + e.getMessage());
         }
 
+        if (printMetrics) {
+            System.err.println(Metrics.getInstance().toJson());
+        }
+
         long endTime = System.currentTimeMillis();
         double executionTime = (endTime - startTime) / 1000.0;
         System.out.printf("\n# Execution time: %.3f seconds.%n", executionTime);
     }
 
+    private static String[] parseGlobalOptions(String[] args) throws IOException {
+        int i = 0;
+        while (i < args.length) {
+            switch (args[i]) {
+                case "--threads":
+                    ArgumentValidator.validateThreadsArgument(args, i);
+                    parallelism = Integer.parseInt(args[i + 1]);
+                    i += 2;
+                    break;
+                case "--snapshot-interval":
+                    ArgumentValidator.validateSnapshotIntervalArgument(args, i);
+                    snapshotIntervalMillis = Long.parseLong(args[i + 1]) * 1000;
+                    i += 2;
+                    break;
+                case "--cache":
+                    cache = QueryCache.load(QueryCache.DEFAULT_MAXIMUM_SIZE);
+                    i++;
+                    break;
+                case "--metrics":
+                    ArgumentValidator.validateMetricsArgument(args, i);
+                    Metrics.enable();
+                    printMetrics = args[i + 1].equals("json");
+                    i += 2;
+                    break;
+                case "--shards":
+                    ArgumentValidator.validateShardsArgument(args, i);
+                    shardPorts = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    i += 2;
+                    break;
+                case "--memory-budget":
+                    ArgumentValidator.validateMemoryBudgetArgument(args, i);
+                    memoryBudget = Long.parseLong(args[i + 1]) << 20;
+                    i += 2;
+                    break;
+                default:
+                    return Arrays.copyOfRange(args, i, args.length);
+            }
+        }
+        return new String[0];
+    }
+
     private static void handleFreqOption(String[] args) throws IOException {
+        if (args[1].startsWith("--approximate")) {
+            handleApproximateFreqOption(args);
+            return;
+        }
         int n = Integer.parseInt(args[1]);
         String fileName = args[2];
-    
-        WordFrequencyIndexer indexer = new WordFrequencyIndexer();
-        indexer.populateFromFile(fileName);
-        
-        HashEntry[] topFrequencies = indexer.getTopFrequencies(n);
-        System.out.println("\n-> The " + n + " most frequent words in the file '" + fileName + "' are:");
-        for (int i = 0; i < n; i++) {
-            if (i >= topFrequencies.length || topFrequencies[i] == null) {
-                System.out.println("\nWarning: the document does not contain more words to display!");
-                break;
+
+        respond("--freq", String.valueOf(n), new String[] {fileName}, () -> {
+            WordFrequencyIndexer indexer = openDocument(fileName, n);
+            HashEntry[] topFrequencies = indexer.getTopFrequencies(n);
+            return ResultFormatter.formatTopFrequencies(n, fileName, topFrequencies);
+        });
+    }
+
+    /**
+     * Handles --freq --approximate KB and --freq --approximate-error E, which
+     * count words in a fixed-size sketch instead of a full word table. Files
+     * are counted on --threads threads, each with its own sketch; standard
+     * input is counted on one thread and may print periodic snapshots.
+     */
+    private static void handleApproximateFreqOption(String[] args) throws IOException {
+        boolean byError = args[1].equals("--approximate-error");
+        int n = Integer.parseInt(args[3]);
+        String fileName = args[4];
+        HeavyHitterSketch shape = byError
+                ? HeavyHitterSketch.withErrorBound(Double.parseDouble(args[2]))
+                : HeavyHitterSketch.withMemory(Long.parseLong(args[2]) << 10);
+
+        // Chunks are merged in a different order for each thread count, which can shift the estimates
+        respond("--freq " + args[1], args[2] + " " + n + " " + parallelism, new String[] {fileName}, () -> {
+            HeavyHitterSketch sketch;
+            if (fileName.equals(STANDARD_INPUT)) {
+                sketch = shape;
+                LongConsumer snapshot = snapshotIntervalMillis == 0 ? null : bytesRead -> System.out.print(
+                        ResultFormatter.formatApproximateSnapshot(n, bytesRead, sketch.getTopFrequencies(n)));
+                sketch.populateFromChannel(Channels.newChannel(System.in), snapshotIntervalMillis, snapshot);
+            } else {
+                sketch = HeavyHitterSketch.count(Paths.get("docs", fileName), parallelism, shape);
             }
-            System.out.println((i + 1) + ") '" + topFrequencies[i].getKey() + "' occurred " + topFrequencies[i].getValue() + " time(s).");
-        }
+            return ResultFormatter.formatApproximateFrequencies(n, fileName, sketch.getTopFrequencies(n),
+                    sketch.getMemoryUsage(), sketch.getErrorBound(), sketch.getConfidence(), sketch.getUnlistedBound(n));
+        });
     }
-    
 
     private static void handleFreqWordOption(String[] args) throws IOException {
         String word = args[1].toLowerCase();
         String fileName = args[2];
 
-        WordFrequencyIndexer wordHashMap = new WordFrequencyIndexer();
-        wordHashMap.populateFromFile(fileName);
-        int frequency = wordHashMap.getWordFrequency(word);
+        respond("--freq-word", word, new String[] {fileName}, () -> {
+            // Without a saved index, only the word itself is counted instead of building a word table
+            int frequency;
+            if (fileName.equals(STANDARD_INPUT)) {
+                frequency = TermMatcher.scan(Channels.newChannel(System.in), new String[] {word}).getCount(0);
+            } else if (!IndexStore.hasIndex(fileName)) {
+                frequency = IndexStore.scan(fileName, new String[] {word}).getCount(0);
+            } else {
+                frequency = IndexStore.open(fileName, parallelism).getWordFrequency(word);
+                IndexStore.refreshCorpusIndex(parallelism);
+            }
+            return ResultFormatter.formatWordFrequency(word, frequency, fileName);
+        });
+    }
+
+    /**
+     * Prints the response of a query, taking it from the query cache when
+     * --cache is set and none of its documents has changed since it was cached.
+     * Queries reading standard input are never cached.
+     */
+    private static void respond(String operation, String parameters, String[] documents,
+                                QueryCache.Computation computation) throws IOException {
+        String response;
+        if (cache != null && !Arrays.asList(documents).contains(STANDARD_INPUT)) {
+            response = cache.get(QueryCache.versionedKey(operation, parameters, documents), computation);
+        } else {
+            response = computation.compute();
+        }
+        System.out.print(response);
+    }
+
+    /**
+     * Opens a document for --freq: from its saved index when possible, or by
+     * reading it directly when it comes from standard input or a memory budget
+     * is set.
+     *
+     * @param fileName the document, or "-" for standard input
+     * @param snapshotSize the number of words printed in periodic snapshots of standard input, or 0 for none
+     */
+    private static WordFrequencyIndexer openDocument(String fileName, int snapshotSize) throws IOException {
+        boolean standardInput = fileName.equals(STANDARD_INPUT);
+        if (!standardInput && memoryBudget == 0) {
+            WordFrequencyIndexer indexer = IndexStore.open(fileName, parallelism);
+            IndexStore.refreshCorpusIndex(parallelism);
+            return indexer;
+        }
+
+        WordFrequencyIndexer indexer = new WordFrequencyIndexer();
+        indexer.setMemoryBudget(memoryBudget);
+        if (!standardInput) {
+            indexer.populateFromFile(fileName);
+            return indexer;
+        }
 
-        System.out.printf("\nThe word '%s' appears %d time(s) in the file '%s'.%n", word, frequency, fileName);
+        LongConsumer snapshot = null;
+        if (snapshotSize > 0 && snapshotIntervalMillis > 0) {
+            if (memoryBudget > 0) {
+                throw new IllegalArgumentException("--snapshot-interval cannot be combined with --memory-budget.");
+            }
+            snapshot = bytesRead -> System.out.print(ResultFormatter.formatSnapshot(snapshotSize, bytesRead,
+                    indexer.getTopFrequencies(snapshotSize)));
+        }
+        indexer.populateFromChannel(STANDARD_INPUT, Channels.newChannel(System.in), snapshotIntervalMillis, snapshot);
+        return indexer;
     }
 
     private static void handleSearchOption(String[] args) throws IOException {
-        String[] searchTerms = args[1].toLowerCase().split("\\s+");
-        String[] files = Arrays.copyOfRange(args, 2, args.length);
+        int termIndex = ArgumentValidator.searchTermIndex(args);
+        String[] searchTerms = args[termIndex].toLowerCase().split("\\s+");
+        String[] files = QueryCache.normalizeDocuments(Arrays.copyOfRange(args, termIndex + 1, args.length));
+
+        if (termIndex == 1) {
+            respond("--search", QueryCache.normalizeTerms(searchTerms), files, () -> {
+                SearchResult[] results = SearchEngine.search(searchTerms, files, parallelism);
+                return ResultFormatter.formatSearchResults(results);
+            });
+            return;
+        }
 
-        WordFrequencyIndexer[] indexers = new WordFrequencyIndexer[files.length];
-        int documentsWithTerm = 0;
+        if (args[1].equals("--top")) {
+            int k = Integer.parseInt(args[2]);
+            QueryCache.Computation topK = () -> ResultFormatter.formatSearchResults(
+                    SearchEngine.searchTopK(searchTerms, files, k, parallelism));
+            if (files.length == 0) {
+                // A corpus-wide search depends on the corpus index, which the cache does not track
+                System.out.print(topK.compute());
+            } else {
+                respond("--search --top", k + " " + QueryCache.normalizeTerms(searchTerms), files, topK);
+            }
+            return;
+        }
+
+        // Words that are never indexed, such as "a" in "out of a job", hold no position in a document,
+        // so they are dropped and the remaining words must be consecutive
+        String[] phraseTerms = WordTokenizer.words(args[termIndex]);
+        // The order of the terms matters in a phrase, so it is kept in the cache key
+        int slop = args[1].equals("--near") ? Integer.parseInt(args[2]) : 0;
+        respond("--search --phrase", slop + " " + String.join(" ", phraseTerms), files, () -> {
+            SearchResult[] results = SearchEngine.searchPhrase(phraseTerms, files, slop, parallelism);
+            return ResultFormatter.formatSearchResults(results);
+        });
+    }
+
+    private static void handleServeOption(String[] args) throws IOException {
+        QueryServer server = QueryServer.loadCorpus(parallelism);
+        if (args.length == 2) {
+            server.serveSocket(Integer.parseInt(args[1]));
+        } else {
+            server.serveStream(System.in, System.out);
+        }
+    }
 
-        for (int i = 0; i < files.length; i++) {
-            WordFrequencyIndexer indexer = new WordFrequencyIndexer();
-            indexer.populateFromFile(files[i]);
-            double tfIdf = indexer.calculateTFIDF(searchTerms, files.length, documentsWithTerm);
-            if (tfIdf > 0) documentsWithTerm++;
-            indexers[i] = indexer;
+    /**
+     * Answers every query of a file, reading each document once. The responses
+     * are printed in the order of the queries; the query cache is not used.
+     */
+    private static void handleBatchOption(String[] args) throws IOException {
+        QueryBatch batch = QueryBatch.parse(Paths.get(args[1]));
+        for (String response : batch.run(parallelism)) {
+            System.out.print(response);
         }
+        System.out.printf("%n# Answered %d quer%s from %d document(s).%n", batch.size(),
+                batch.size() == 1 ? "y" : "ies", batch.getDocumentCount());
+    }
+
+    /**
+     * Serves a shard of the corpus: loads the given documents once and
+     * answers the partial requests of coordinators started with --shards.
+     */
+    private static void handleShardWorkerOption(String[] args) throws IOException {
+        ShardWorker worker = ShardWorker.load(Arrays.copyOfRange(args, 2, args.length), parallelism);
+        worker.serveSocket(Integer.parseInt(args[1]));
+    }
+
+    /**
+     * Answers --freq or --search from the shard workers listening on the
+     * --shards ports instead of reading documents. The shards hold their
+     * documents in memory, so the query cache is not used.
+     */
+    private static void handleShardedOption(String[] args) throws IOException {
+        if (cache != null) {
+            throw new IllegalArgumentException("--cache cannot be combined with --shards.");
+        }
+        try (ShardCoordinator coordinator = ShardCoordinator.connect(shardPorts)) {
+            System.out.print(coordinator.answer(args));
+        }
+    }
 
-        Arrays.sort(indexers, Comparator.comparingDouble(WordFrequencyIndexer::getTFIDFScore).reversed());
+    private static void handleBuildIndexOption(String[] args) throws IOException {
+        boolean positions = args[1].equals("--positions");
+        String[] files = Arrays.copyOfRange(args, positions ? 2 : 1, args.length);
 
-        System.out.println("\n-> Relevant files in descending order:");
-        for (int i = 0; i < indexers.length; i++) {
-            System.out.printf("%d) '%s' with relevance %.9f.%n", i + 1,
-                    indexers[i].getFileName(), indexers[i].getTFIDFScore());
+        System.out.println("\n-> Building indexes:");
+        for (String file : files) {
+            WordFrequencyIndexer indexer = IndexStore.build(file, parallelism);
+            System.out.printf("'%s' indexed: %d word(s) written to '%s'.%n", file,
+                    indexer.getTotalTokenCount(), IndexStore.indexPathFor(file));
         }
+
+        // Once a positional index exists, every explicit rebuild keeps it in step with the corpus index
+        boolean withPositions = positions || PositionalIndex.exists();
+        int documentCount = IndexStore.buildCorpusIndex(parallelism, withPositions);
+        System.out.printf("Corpus index updated with %d document(s)%s.%n", documentCount,
+                withPositions ? ", with word positions" : "");
     }
 }
@@ -1,36 +1,107 @@
 package com.indexer.enums;
 
+import com.indexer.metrics.Metrics;
 import com.indexer.models.HashEntry;
 import com.indexer.sorting_algorithms.HeapSort;
 import com.indexer.sorting_algorithms.MergeSort;
+import com.indexer.sorting_algorithms.PackedKeys;
+import com.indexer.sorting_algorithms.ParallelMergeSort;
+import com.indexer.sorting_algorithms.ParallelQuickSort;
 import com.indexer.sorting_algorithms.QuickSort;
 import com.indexer.sorting_algorithms.ShellSort;
+import com.indexer.structures.WordCountTable;
 
 public enum SortAlgorithm {
     HEAPSORT {
         @Override
-        public HashEntry[] sort(HashEntry[] array) {
+        protected HashEntry[] sortEntries(HashEntry[] array) {
             return HeapSort.heapSort(array);
         }
     },
     MERGESORT {
         @Override
-        public HashEntry[] sort(HashEntry[] array) {
+        protected HashEntry[] sortEntries(HashEntry[] array) {
             return MergeSort.mergeSort(array);
         }
     },
     QUICKSORT {
         @Override
-        public HashEntry[] sort(HashEntry[] array) {
+        protected HashEntry[] sortEntries(HashEntry[] array) {
             return QuickSort.quickSort(array);
         }
     },
     SHELLSORT {
         @Override
-        public HashEntry[] sort(HashEntry[] array) {
+        protected HashEntry[] sortEntries(HashEntry[] array) {
             return ShellSort.shellSort(array);
         }
+    },
+    PARALLEL_MERGESORT {
+        @Override
+        protected HashEntry[] sortEntries(HashEntry[] array) {
+            return sortTable(tableOf(array));
+        }
+
+        @Override
+        protected HashEntry[] sortTable(WordCountTable table) {
+            return PackedKeys.sortTable(table, ParallelMergeSort::parallelMergeSort);
+        }
+    },
+    PARALLEL_QUICKSORT {
+        @Override
+        protected HashEntry[] sortEntries(HashEntry[] array) {
+            return sortTable(tableOf(array));
+        }
+
+        @Override
+        protected HashEntry[] sortTable(WordCountTable table) {
+            return PackedKeys.sortTable(table, ParallelQuickSort::parallelQuickSort);
+        }
     };
-    
-    public abstract HashEntry[] sort(HashEntry[] array);
+
+    /**
+     * Sorts the entries with this algorithm, recording the time spent when
+     * metrics are enabled.
+     */
+    public HashEntry[] sort(HashEntry[] array) {
+        long start = Metrics.start();
+        HashEntry[] sorted = sortEntries(array);
+        Metrics.recordSort(name(), start);
+        return sorted;
+    }
+
+    /**
+     * Ranks every word of a table with this algorithm, recording the time
+     * spent when metrics are enabled. The parallel algorithms sort keys built
+     * from the table's slots without creating an entry per comparison.
+     *
+     * @param table the table to rank, no longer being resized
+     * @return one entry per word, most frequent first
+     */
+    public HashEntry[] sort(WordCountTable table) {
+        long start = Metrics.start();
+        HashEntry[] sorted = sortTable(table);
+        Metrics.recordSort(name(), start);
+        return sorted;
+    }
+
+    protected abstract HashEntry[] sortEntries(HashEntry[] array);
+
+    protected HashEntry[] sortTable(WordCountTable table) {
+        return sortEntries(table.toEntries());
+    }
+
+    /**
+     * Counts entries in a table of their own, so that loose entries can be
+     * sorted by the algorithms working on tables.
+     */
+    private static WordCountTable tableOf(HashEntry[] array) {
+        WordCountTable table = WordCountTable.withPrivateDictionary();
+        table.ensureCapacity(array.length);
+        for (HashEntry entry : array) {
+            table.increment(entry.getKey(), entry.getValue());
+        }
+        table.finishResize();
+        return table;
+    }
 }
@@ -0,0 +1,224 @@
+package com.indexer.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.indexer.structures.WordCountTable;
+
+/**
+ * Process-wide counters and timers for the hot paths of the indexer.
+ *
+ * Metrics are off by default. Instrumented code calls {@link #start()} and
+ * passes the result to a {@code record} method; while metrics are off
+ * {@code start()} returns 0 without reading the clock and every
+ * {@code record} method returns after a single field read, so nothing is
+ * measured per word. Counters are {@link LongAdder}s, so concurrent documents
+ * can record without contending on a lock.
+ */
+public class Metrics implements MetricsMXBean {
+    private static final Metrics INSTANCE = new Metrics();
+    private static final String OBJECT_NAME = "com.indexer:type=Metrics";
+    private static final int PROBE_BUCKETS = 16;
+
+    private static volatile boolean enabled;
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder tokensCounted = new LongAdder();
+    private final LongAdder ingestionNanos = new LongAdder();
+    private final LongAdder resizeCount = new LongAdder();
+    private final LongAdder resizeNanos = new LongAdder();
+    private final LongAdder[] probeLengths = new LongAdder[PROBE_BUCKETS];
+    private final Map<String, LongAdder> sortNanos = new ConcurrentHashMap<>();
+    private final LongAdder scoringCount = new LongAdder();
+    private final LongAdder scoringNanos = new LongAdder();
+
+    private Metrics() {
+        for (int i = 0; i < PROBE_BUCKETS; i++) {
+            probeLengths[i] = new LongAdder();
+        }
+    }
+
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns metrics on and registers them with the platform MBean server.
+     *
+     * @throws IllegalStateException if the MBean cannot be registered
+     */
+    public static synchronized void enable() {
+        if (enabled) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Metrics could not be registered: " + e.getMessage(), e);
+        }
+        enabled = true;
+    }
+
+    /**
+     * Returns the current time to pass to a {@code record} method, or 0 when
+     * metrics are off.
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records bytes tokenized and the words counted from them.
+     */
+    public static void recordIngestion(long bytes, long tokens, long startNanos) {
+        if (!enabled) return;
+        INSTANCE.bytesRead.add(bytes);
+        INSTANCE.tokensCounted.add(tokens);
+        INSTANCE.ingestionNanos.add(System.nanoTime() - startNanos);
+    }
+
+    public static void recordResize(long startNanos) {
+        if (!enabled) return;
+        INSTANCE.resizeCount.increment();
+        INSTANCE.resizeNanos.add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds the probe length of every word stored in a table to the histogram.
+     * Walks the whole table, so it is meant to be called once per populated
+     * document rather than per insertion.
+     */
+    public static void recordProbeLengths(WordCountTable table) {
+        if (!enabled) return;
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (table.isOccupied(slot)) {
+                INSTANCE.probeLengths[Math.min(table.probeLength(slot), PROBE_BUCKETS) - 1].increment();
+            }
+        }
+    }
+
+    public static void recordSort(String algorithm, long startNanos) {
+        if (!enabled) return;
+        INSTANCE.sortNanos.computeIfAbsent(algorithm, a -> new LongAdder()).add(System.nanoTime() - startNanos);
+    }
+
+    public static void recordScoring(long startNanos) {
+        if (!enabled) return;
+        INSTANCE.scoringCount.increment();
+        INSTANCE.scoringNanos.add(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getTokensCounted() {
+        return tokensCounted.sum();
+    }
+
+    @Override
+    public double getIngestionSeconds() {
+        return ingestionNanos.sum() / 1e9;
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        double seconds = getIngestionSeconds();
+        return seconds == 0 ? 0 : getBytesRead() / seconds;
+    }
+
+    @Override
+    public double getTokensPerSecond() {
+        double seconds = getIngestionSeconds();
+        return seconds == 0 ? 0 : getTokensCounted() / seconds;
+    }
+
+    @Override
+    public long getResizeCount() {
+        return resizeCount.sum();
+    }
+
+    @Override
+    public double getResizeMillis() {
+        return resizeNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long[] getProbeLengthHistogram() {
+        long[] histogram = new long[PROBE_BUCKETS];
+        for (int i = 0; i < PROBE_BUCKETS; i++) {
+            histogram[i] = probeLengths[i].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public Map<String, Double> getSortMillis() {
+        Map<String, Double> millis = new TreeMap<>();
+        sortNanos.forEach((algorithm, nanos) -> millis.put(algorithm, nanos.sum() / 1e6));
+        return millis;
+    }
+
+    @Override
+    public long getScoringCount() {
+        return scoringCount.sum();
+    }
+
+    @Override
+    public double getScoringMillis() {
+        return scoringNanos.sum() / 1e6;
+    }
+
+    @Override
+    public String toJson() {
+        StringBuilder sorts = new StringBuilder();
+        for (Map.Entry<String, Double> sort : getSortMillis().entrySet()) {
+            if (sorts.length() > 0) sorts.append(", ");
+            sorts.append(String.format(Locale.ROOT, "\"%s\": %.3f", sort.getKey(), sort.getValue()));
+        }
+        StringBuilder probes = new StringBuilder();
+        for (long count : getProbeLengthHistogram()) {
+            if (probes.length() > 0) probes.append(", ");
+            probes.append(count);
+        }
+        return String.format(Locale.ROOT,
+                "{\"bytesRead\": %d, \"tokensCounted\": %d, \"ingestionSeconds\": %.3f, "
+                        + "\"bytesPerSecond\": %.1f, \"tokensPerSecond\": %.1f, "
+                        + "\"resizeCount\": %d, \"resizeMs\": %.3f, \"probeLengthHistogram\": [%s], "
+                        + "\"sortMs\": {%s}, \"scoringCount\": %d, \"scoringMs\": %.3f}",
+                getBytesRead(), getTokensCounted(), getIngestionSeconds(), getBytesPerSecond(),
+                getTokensPerSecond(), getResizeCount(), getResizeMillis(), probes, sorts,
+                getScoringCount(), getScoringMillis());
+    }
+
+    @Override
+    public void reset() {
+        bytesRead.reset();
+        tokensCounted.reset();
+        ingestionNanos.reset();
+        resizeCount.reset();
+        resizeNanos.reset();
+        for (LongAdder probeLength : probeLengths) {
+            probeLength.reset();
+        }
+        sortNanos.clear();
+        scoringCount.reset();
+        scoringNanos.reset();
+    }
+}
@@ -0,0 +1,43 @@
+package com.indexer.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the indexer's metrics, registered under
+ * {@code com.indexer:type=Metrics} while metrics are enabled.
+ */
+public interface MetricsMXBean {
+
+    long getBytesRead();
+
+    long getTokensCounted();
+
+    double getIngestionSeconds();
+
+    double getBytesPerSecond();
+
+    double getTokensPerSecond();
+
+    long getResizeCount();
+
+    double getResizeMillis();
+
+    /**
+     * Returns how many stored words are found after probing 1, 2, ... slots;
+     * the last bucket counts every longer probe.
+     */
+    long[] getProbeLengthHistogram();
+
+    /**
+     * Returns the total milliseconds spent in each sort algorithm.
+     */
+    Map<String, Double> getSortMillis();
+
+    long getScoringCount();
+
+    double getScoringMillis();
+
+    String toJson();
+
+    void reset();
+}
@@ -0,0 +1,32 @@
+package com.indexer.models;
+
+/**
+ * A word with an estimated number of occurrences and the interval that is
+ * guaranteed to contain its true number of occurrences.
+ */
+public class ApproximateEntry {
+    private final String key;
+    private final long estimate;
+    private final long lowerBound;
+
+    public ApproximateEntry(String key, long estimate, long lowerBound) {
+        this.key = key;
+        this.estimate = estimate;
+        this.lowerBound = lowerBound;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the estimated number of occurrences, which is also an upper bound.
+     */
+    public long getEstimate() {
+        return estimate;
+    }
+
+    public long getLowerBound() {
+        return lowerBound;
+    }
+}
@@ -0,0 +1,39 @@
+package com.indexer.models;
+
+public class DocumentMetadata {
+    private final long size;
+    private final long lastModified;
+    private final long checksum;
+    private final long wordBoundary;
+
+    public DocumentMetadata(long size, long lastModified, long checksum) {
+        this(size, lastModified, checksum, size);
+    }
+
+    public DocumentMetadata(long size, long lastModified, long checksum, long wordBoundary) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.checksum = checksum;
+        this.wordBoundary = wordBoundary;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the offset just past the last non-letter byte of the document,
+     * where a word that may continue in appended bytes starts.
+     */
+    public long getWordBoundary() {
+        return wordBoundary;
+    }
+}
@@ -0,0 +1,19 @@
+package com.indexer.models;
+
+public class SearchResult {
+    private final String fileName;
+    private final double score;
+
+    public SearchResult(String fileName, double score) {
+        this.fileName = fileName;
+        this.score = score;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public double getScore() {
+        return score;
+    }
+}
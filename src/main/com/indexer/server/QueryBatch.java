@@ -0,0 +1,254 @@
+package com.indexer.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.indexer.models.HashEntry;
+import com.indexer.models.SearchResult;
+import com.indexer.structures.IndexStore;
+import com.indexer.structures.QueryCache;
+import com.indexer.structures.SearchEngine;
+import com.indexer.structures.WordFrequencyIndexer;
+import com.indexer.utils.ArgumentValidator;
+import com.indexer.utils.ResultFormatter;
+import com.indexer.utils.TermMatcher;
+
+/**
+ * Answers a file of queries, reading each document once for all of them.
+ *
+ * Each line is a query using the command line syntax, as sent to
+ * {@link QueryServer}; blank lines and lines starting with {@code #} are
+ * skipped. All queries are parsed up front and what they need from each
+ * document is collected: the largest N of its {@code --freq} queries and the
+ * words of its {@code --freq-word} and {@code --search} queries. Each
+ * document is then opened once, through its saved index when there is one,
+ * or scanned for those words only when no {@code --freq} query needs its
+ * whole table. Only that extract is kept, so at most one document per thread
+ * is held in memory. Finally every query is answered from the extracts, in
+ * input order.
+ *
+ * The work therefore grows with the number of distinct documents rather than
+ * the number of queries. Phrase, top-K and approximate queries need more than
+ * word counts and are rejected, as are commands other than queries.
+ */
+public class QueryBatch {
+    private final List<String[]> queries = new ArrayList<>();
+    private final Map<String, DocumentNeeds> needs = new LinkedHashMap<>();
+    private final String[] errors;
+
+    private QueryBatch(List<String> lines) {
+        errors = new String[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] args = QueryServer.splitArguments(lines.get(i));
+            queries.add(args);
+            try {
+                collectNeeds(args);
+            } catch (IllegalArgumentException e) {
+                errors[i] = String.format("Error: %s%n", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads and parses a file of queries.
+     *
+     * @param queriesFile the file holding one query per line
+     * @return the parsed batch
+     * @throws IOException if the file cannot be read
+     */
+    public static QueryBatch parse(Path queriesFile) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(queriesFile, StandardCharsets.UTF_8)) {
+            if (!line.isBlank() && !line.trim().startsWith("#")) lines.add(line);
+        }
+        return new QueryBatch(lines);
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    /**
+     * Returns the number of distinct documents read by the batch.
+     */
+    public int getDocumentCount() {
+        return needs.size();
+    }
+
+    private void collectNeeds(String[] args) {
+        switch (args[0]) {
+            case "--freq":
+                ArgumentValidator.validateFreqArguments(args);
+                if (args[1].startsWith("--approximate")) {
+                    throw new IllegalArgumentException("Approximate counts cannot be batched.");
+                }
+                needsOf(args[2]).topCount = Math.max(needsOf(args[2]).topCount, Integer.parseInt(args[1]));
+                break;
+            case "--freq-word":
+                ArgumentValidator.validateFreqWordArguments(args);
+                needsOf(args[2]).words.add(args[1].toLowerCase());
+                break;
+            case "--search":
+                ArgumentValidator.validateSearchArguments(args);
+                if (ArgumentValidator.searchTermIndex(args) != 1) {
+                    throw new IllegalArgumentException("Phrase and top-K search cannot be batched.");
+                }
+                List<String> terms = Arrays.asList(args[1].toLowerCase().split("\\s+"));
+                for (int i = 2; i < args.length; i++) {
+                    needsOf(args[i]).words.addAll(terms);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid option in a batch. Use --freq, --freq-word, or --search.");
+        }
+    }
+
+    private DocumentNeeds needsOf(String fileName) {
+        if (fileName.equals("-")) {
+            throw new IllegalArgumentException("Standard input cannot be read in a batch.");
+        }
+        return needs.computeIfAbsent(fileName, f -> new DocumentNeeds());
+    }
+
+    /**
+     * Reads every document the queries need and answers them.
+     *
+     * @param parallelism the number of documents read at once, and the threads
+     *                    shared by each document when there are fewer documents
+     * @return the response of each query, in input order
+     * @throws IOException if the batch is interrupted
+     */
+    public String[] run(int parallelism) throws IOException {
+        Map<String, DocumentExtract> extracts = readDocuments(parallelism);
+        String[] responses = new String[queries.size()];
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = errors[i] != null ? errors[i] : answer(queries.get(i), extracts);
+        }
+        return responses;
+    }
+
+    private Map<String, DocumentExtract> readDocuments(int parallelism) throws IOException {
+        String[] fileNames = needs.keySet().toArray(new String[0]);
+        int threadsPerDocument = Math.max(1, parallelism / Math.max(1, fileNames.length));
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, fileNames.length)));
+        try {
+            List<Future<DocumentExtract>> reads = new ArrayList<>();
+            for (String fileName : fileNames) {
+                reads.add(workers.submit(() -> extract(fileName, needs.get(fileName), threadsPerDocument)));
+            }
+            Map<String, DocumentExtract> extracts = new HashMap<>();
+            for (int i = 0; i < fileNames.length; i++) {
+                extracts.put(fileNames[i], reads.get(i).get());
+            }
+            IndexStore.refreshCorpusIndex(parallelism);
+            return extracts;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads one document and keeps only what the queries need from it. A
+     * document that cannot be read yields an extract holding the error, which
+     * is reported by every query touching it.
+     */
+    private static DocumentExtract extract(String fileName, DocumentNeeds documentNeeds, int parallelism) {
+        DocumentExtract extract = new DocumentExtract();
+        try {
+            String[] words = documentNeeds.words.toArray(new String[0]);
+            if (documentNeeds.topCount == 0 && !IndexStore.hasIndex(fileName)) {
+                TermMatcher matcher = IndexStore.scan(fileName, words);
+                for (int i = 0; i < words.length; i++) {
+                    extract.counts.put(words[i], matcher.getCount(i));
+                }
+                extract.length = matcher.getTotalTokenCount();
+                return extract;
+            }
+
+            WordFrequencyIndexer indexer = IndexStore.open(fileName, parallelism);
+            if (documentNeeds.topCount > 0) {
+                extract.topFrequencies = indexer.getTopFrequencies(documentNeeds.topCount);
+            }
+            for (String word : words) {
+                extract.counts.put(word, indexer.getWordFrequency(word));
+            }
+            extract.length = indexer.getTotalTokenCount();
+        } catch (IOException | RuntimeException e) {
+            extract.error = e;
+        }
+        return extract;
+    }
+
+    private static String answer(String[] args, Map<String, DocumentExtract> extracts) {
+        try {
+            switch (args[0]) {
+                case "--freq": {
+                    int n = Integer.parseInt(args[1]);
+                    HashEntry[] top = readable(extracts, args[2]).topFrequencies;
+                    return ResultFormatter.formatTopFrequencies(n, args[2], Arrays.copyOf(top, Math.min(n, top.length)));
+                }
+                case "--freq-word": {
+                    String word = args[1].toLowerCase();
+                    return ResultFormatter.formatWordFrequency(word, readable(extracts, args[2]).counts.get(word), args[2]);
+                }
+                default: {
+                    String[] searchTerms = args[1].toLowerCase().split("\\s+");
+                    String[] files = QueryCache.normalizeDocuments(Arrays.copyOfRange(args, 2, args.length));
+                    long[] documentLengths = new long[files.length];
+                    int[][] termCounts = new int[files.length][searchTerms.length];
+                    for (int d = 0; d < files.length; d++) {
+                        DocumentExtract extract = readable(extracts, files[d]);
+                        documentLengths[d] = extract.length;
+                        for (int t = 0; t < searchTerms.length; t++) {
+                            termCounts[d][t] = extract.counts.get(searchTerms[t]);
+                        }
+                    }
+                    SearchResult[] results = SearchEngine.search(files, documentLengths, termCounts);
+                    return ResultFormatter.formatSearchResults(results);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return String.format("Error: %s%n", e.getMessage());
+        }
+    }
+
+    private static DocumentExtract readable(Map<String, DocumentExtract> extracts, String fileName)
+            throws IOException {
+        DocumentExtract extract = extracts.get(fileName);
+        if (extract.error instanceof IOException) throw (IOException) extract.error;
+        if (extract.error != null) throw (RuntimeException) extract.error;
+        return extract;
+    }
+
+    private static class DocumentNeeds {
+        private int topCount;
+        private final Set<String> words = new LinkedHashSet<>();
+    }
+
+    private static class DocumentExtract {
+        private HashEntry[] topFrequencies;
+        private final Map<String, Integer> counts = new HashMap<>();
+        private long length;
+        private Exception error;
+    }
+}
@@ -0,0 +1,228 @@
+package com.indexer.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import com.indexer.metrics.Metrics;
+import com.indexer.models.SearchResult;
+import com.indexer.structures.IndexStore;
+import com.indexer.structures.QueryCache;
+import com.indexer.structures.SearchEngine;
+import com.indexer.structures.WordFrequencyIndexer;
+import com.indexer.utils.ArgumentValidator;
+import com.indexer.utils.ResultFormatter;
+
+/**
+ * Answers queries against documents that are indexed once and kept in memory.
+ *
+ * Each request is one line using the command line syntax, for example
+ * {@code --freq 10 ai_ml.txt}, {@code --freq-word deep ai_ml.txt} or
+ * {@code --search "Hamiltonian cycle" a.txt b.txt}. The response is the
+ * output the command line would print, followed by a line containing only
+ * {@code END}. {@code QUIT} closes the connection.
+ *
+ * The indexes are loaded before the first request is accepted and never
+ * modified afterwards, so concurrent requests read them without locking.
+ * Since the loaded documents never change, responses are cached under keys
+ * naming only the documents; {@code --cache-stats} reports the cache's hits
+ * and misses, and {@code --metrics} returns the process metrics as JSON.
+ */
+public class QueryServer {
+    private static final String END_OF_RESPONSE = "END";
+    private static final String QUIT = "QUIT";
+
+    private final Map<String, WordFrequencyIndexer> documents;
+    private final QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAXIMUM_SIZE);
+
+    private QueryServer(Map<String, WordFrequencyIndexer> documents) {
+        this.documents = Map.copyOf(documents);
+    }
+
+    /**
+     * Loads every document of the docs directory, using saved indexes when they are fresh.
+     *
+     * @param parallelism the number of threads used to tokenize documents without a fresh index
+     * @return a server holding the loaded documents
+     * @throws IOException if a document cannot be read
+     */
+    public static QueryServer loadCorpus(int parallelism) throws IOException {
+        Map<String, WordFrequencyIndexer> documents = new HashMap<>();
+        try (Stream<Path> paths = Files.list(Paths.get("docs"))) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String fileName = path.getFileName().toString();
+                if (!Files.isRegularFile(path) || fileName.startsWith(".")) continue;
+                documents.put(fileName, IndexStore.open(fileName, parallelism));
+            }
+        }
+        IndexStore.refreshCorpusIndex(parallelism);
+        System.err.printf("Loaded %d document(s).%n", documents.size());
+        return new QueryServer(documents);
+    }
+
+    /**
+     * Accepts clients on a loopback port until the process is stopped. Each
+     * client is served on its own virtual thread when the runtime supports
+     * them, or on a pooled platform thread otherwise.
+     *
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be opened
+     */
+    public void serveSocket(int port) throws IOException {
+        ExecutorService executor = newClientExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.err.printf("Listening on %s:%d.%n", serverSocket.getInetAddress().getHostAddress(), port);
+            while (true) {
+                Socket client = serverSocket.accept();
+                executor.execute(() -> serveClient(client));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Answers requests read line by line from a stream until it ends or a QUIT line is read.
+     *
+     * @param in the requests
+     * @param out where the responses are written
+     * @throws IOException if the requests cannot be read
+     */
+    public void serveStream(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        PrintStream writer = new PrintStream(out, false, StandardCharsets.UTF_8);
+        String line;
+        while ((line = reader.readLine()) != null && !line.trim().equals(QUIT)) {
+            if (line.isBlank()) continue;
+            writer.print(answer(line));
+            writer.println(END_OF_RESPONSE);
+            writer.flush();
+        }
+    }
+
+    private void serveClient(Socket client) {
+        try (client) {
+            serveStream(client.getInputStream(), client.getOutputStream());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Answers a single request line.
+     *
+     * @param line the request, using the command line syntax
+     * @return the response text
+     */
+    public String answer(String line) {
+        String[] args = splitArguments(line);
+        try {
+            switch (args[0]) {
+                case "--freq": {
+                    ArgumentValidator.validateFreqArguments(args);
+                    if (args[1].startsWith("--approximate")) {
+                        // Loaded documents are already counted exactly
+                        return String.format("Error: Approximate counts are not available from the server.%n");
+                    }
+                    int n = Integer.parseInt(args[1]);
+                    return cache.get(QueryCache.key("--freq", String.valueOf(n), args[2]),
+                            () -> ResultFormatter.formatTopFrequencies(n, args[2], document(args[2]).getTopFrequencies(n)));
+                }
+                case "--freq-word": {
+                    ArgumentValidator.validateFreqWordArguments(args);
+                    String word = args[1].toLowerCase();
+                    return cache.get(QueryCache.key("--freq-word", word, args[2]),
+                            () -> ResultFormatter.formatWordFrequency(word, document(args[2]).getWordFrequency(word), args[2]));
+                }
+                case "--search": {
+                    ArgumentValidator.validateSearchArguments(args);
+                    if (ArgumentValidator.searchTermIndex(args) != 1) {
+                        // Loaded documents keep word counts only, not positions or a corpus index
+                        return String.format("Error: Phrase and top-K search are not available from the server.%n");
+                    }
+                    String[] searchTerms = args[1].toLowerCase().split("\\s+");
+                    String[] files = QueryCache.normalizeDocuments(Arrays.copyOfRange(args, 2, args.length));
+                    return cache.get(QueryCache.key("--search", QueryCache.normalizeTerms(searchTerms), files), () -> {
+                        WordFrequencyIndexer[] indexers = new WordFrequencyIndexer[files.length];
+                        for (int i = 0; i < files.length; i++) {
+                            indexers[i] = document(files[i]);
+                        }
+                        SearchResult[] results = SearchEngine.search(searchTerms, indexers);
+                        return ResultFormatter.formatSearchResults(results);
+                    });
+                }
+                case "--cache-stats":
+                    return ResultFormatter.formatCacheStatistics(cache.getHitCount(), cache.getMissCount(),
+                            cache.getEvictionCount(), cache.size());
+                case "--metrics":
+                    if (!Metrics.isEnabled()) {
+                        return String.format("Error: Metrics are disabled. Start the server with --metrics json or --metrics jmx.%n");
+                    }
+                    return Metrics.getInstance().toJson() + System.lineSeparator();
+                default:
+                    return String.format("Error: Invalid option. Use --freq, --freq-word, --search, --cache-stats, or --metrics.%n");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            return String.format("Error: %s%n", e.getMessage());
+        }
+    }
+
+    private WordFrequencyIndexer document(String fileName) {
+        WordFrequencyIndexer indexer = documents.get(fileName);
+        if (indexer == null) {
+            throw new IllegalArgumentException("The document '" + fileName + "' is not loaded.");
+        }
+        return indexer;
+    }
+
+    /**
+     * Splits a request line on whitespace, keeping double-quoted text together.
+     */
+    static String[] splitArguments(String line) {
+        List<String> arguments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean hasArgument = false;
+        for (char c : line.trim().toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                hasArgument = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (hasArgument) arguments.add(current.toString());
+                current.setLength(0);
+                hasArgument = false;
+            } else {
+                current.append(c);
+                hasArgument = true;
+            }
+        }
+        if (hasArgument) arguments.add(current.toString());
+        return arguments.toArray(new String[0]);
+    }
+
+    static ExecutorService newClientExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
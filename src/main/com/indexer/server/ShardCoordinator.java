@@ -0,0 +1,383 @@
+package com.indexer.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.indexer.models.HashEntry;
+import com.indexer.models.SearchResult;
+import com.indexer.structures.QueryCache;
+import com.indexer.utils.ArgumentValidator;
+import com.indexer.utils.ResultFormatter;
+
+/**
+ * Answers {@code --freq} and {@code --search} over a corpus split across
+ * several {@link ShardWorker} processes, as if one process held every
+ * document.
+ *
+ * Each query is scattered to the shards in rounds. Every request of a round
+ * is sent before any response is read, so the shards work on it concurrently,
+ * and each round only ships what the next one needs:
+ *
+ * <ul>
+ *   <li>A search first gathers the number of documents, their total length
+ *       and the document frequency of each term from every shard, then has
+ *       each shard score its own documents against those global statistics.
+ *       The partial rankings, only the best K of each shard for
+ *       {@code --top K}, are merged into the final one, with the same scores
+ *       a single process would compute.</li>
+ *   <li>The most frequent words of the whole corpus are found with the
+ *       three-phase uniform threshold algorithm (TPUT). The top N of each
+ *       shard give a lower bound of the N-th largest total; any word reaching
+ *       it must occur at least that bound divided by the number of shards in
+ *       some shard, so the second phase fetches only those words. The
+ *       remaining candidates' missing counts are fetched in the third phase,
+ *       and the counts printed are exact.</li>
+ *   <li>The most frequent words of one document are asked of the shard
+ *       holding it.</li>
+ * </ul>
+ */
+public class ShardCoordinator implements Closeable {
+    private final List<Shard> shards;
+    private final Map<String, Shard> owners = new HashMap<>();
+
+    private ShardCoordinator(List<Shard> shards) throws IOException {
+        this.shards = shards;
+        Map<Shard, String> requests = new LinkedHashMap<>();
+        for (Shard shard : shards) {
+            requests.put(shard, request("DOCUMENTS", List.of()));
+        }
+        for (Map.Entry<Shard, List<String[]>> response : exchange(requests).entrySet()) {
+            for (String[] document : response.getValue()) {
+                if (owners.put(document[0], response.getKey()) != null) {
+                    throw new IllegalArgumentException("The document '" + document[0] + "' is held by more than one shard.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Connects to shard workers listening on loopback ports and reads the
+     * documents each one holds. A document may be held by one shard only.
+     *
+     * @param ports the ports of the shard workers
+     * @return a coordinator over every shard
+     * @throws IOException if a shard cannot be reached
+     */
+    public static ShardCoordinator connect(int[] ports) throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        try {
+            for (int port : ports) {
+                shards.add(new Shard(port));
+            }
+            return new ShardCoordinator(shards);
+        } catch (IOException | RuntimeException e) {
+            for (Shard shard : shards) {
+                shard.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Answers a {@code --freq} or {@code --search} command that has been
+     * validated by {@link ArgumentValidator#validateShardedArguments(String[])}.
+     *
+     * @param args the command line arguments of the query
+     * @return the text the command prints
+     * @throws IOException if a shard fails or cannot be reached
+     */
+    public String answer(String[] args) throws IOException {
+        if (args[0].equals("--freq")) {
+            int n = Integer.parseInt(args[1]);
+            if (args.length == 3) {
+                return ResultFormatter.formatTopFrequencies(n, args[2], topFrequencies(n, args[2]));
+            }
+            return ResultFormatter.formatShardedTopFrequencies(n, owners.size(), shards.size(), topFrequencies(n));
+        }
+
+        int termIndex = ArgumentValidator.searchTermIndex(args);
+        String[] terms = args[termIndex].toLowerCase().split("\\s+");
+        String[] files = QueryCache.normalizeDocuments(Arrays.copyOfRange(args, termIndex + 1, args.length));
+        int k = termIndex == 1 ? 0 : Integer.parseInt(args[2]);
+        return ResultFormatter.formatSearchResults(search(terms, files, k));
+    }
+
+    /**
+     * Ranks documents across the shards, by TF-IDF or, with K, by BM25.
+     *
+     * @param terms the lowercase search terms
+     * @param files the distinct documents to rank in sorted order, or none for every document of every shard
+     * @param k the number of documents to return ranked by BM25, or 0 to rank every document by TF-IDF
+     */
+    private SearchResult[] search(String[] terms, String[] files, int k) throws IOException {
+        Map<Shard, List<String>> selection = selectShards(files);
+        String joinedTerms = String.join(" ", terms);
+
+        Map<Shard, String> requests = new LinkedHashMap<>();
+        for (Map.Entry<Shard, List<String>> shard : selection.entrySet()) {
+            requests.put(shard.getKey(), request("STATISTICS", shard.getValue(), joinedTerms));
+        }
+        int documentCount = 0;
+        long totalLength = 0;
+        int[] documentFrequencies = new int[terms.length];
+        for (List<String[]> response : exchange(requests).values()) {
+            String[] statistics = response.get(0);
+            documentCount += Integer.parseInt(statistics[0]);
+            totalLength += Long.parseLong(statistics[1]);
+            String[] frequencies = statistics[2].split(" ");
+            for (int t = 0; t < terms.length; t++) {
+                documentFrequencies[t] += Integer.parseInt(frequencies[t]);
+            }
+        }
+        if (documentCount == 0) return new SearchResult[0];
+
+        String[] joinedFrequencies = Arrays.stream(documentFrequencies).mapToObj(String::valueOf).toArray(String[]::new);
+        double averageLength = (double) totalLength / documentCount;
+        requests.clear();
+        for (Map.Entry<Shard, List<String>> shard : selection.entrySet()) {
+            requests.put(shard.getKey(), request("SCORE", shard.getValue(), k > 0 ? "bm25" : "tfidf",
+                    String.valueOf(k), String.valueOf(documentCount), Double.toString(averageLength),
+                    String.join(" ", joinedFrequencies), joinedTerms));
+        }
+        List<SearchResult> results = new ArrayList<>();
+        for (List<String[]> response : exchange(requests).values()) {
+            for (String[] result : response) {
+                results.add(new SearchResult(result[1], Double.parseDouble(result[0])));
+            }
+        }
+        results.sort(Comparator.comparingDouble(SearchResult::getScore).reversed()
+                .thenComparing(SearchResult::getFileName));
+        return results.subList(0, k > 0 ? Math.min(k, results.size()) : results.size()).toArray(new SearchResult[0]);
+    }
+
+    private HashEntry[] topFrequencies(int n, String fileName) throws IOException {
+        Shard owner = owner(fileName);
+        List<String[]> response = exchange(Map.of(owner, request("TOP", List.of(fileName), String.valueOf(n)))).get(owner);
+        HashEntry[] entries = new HashEntry[response.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new HashEntry(response.get(i)[0], Integer.parseInt(response.get(i)[1]));
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the N most frequent words of every shard combined with TPUT. Each
+     * word's count in each shard is either known exactly or, once the second
+     * phase has run, known to be below its threshold.
+     */
+    private HashEntry[] topFrequencies(int n) throws IOException {
+        Map<String, long[]> counts = new HashMap<>();
+
+        // Phase 1: the N-th largest sum of the shards' top N is a lower bound of the N-th largest total
+        recordCounts(counts, exchange(requestAll("TOP", String.valueOf(n))));
+        long firstBound = nthLargest(counts, n, false, 0);
+
+        // Phase 2: a word reaching that bound occurs at least bound / shards times in some shard
+        long threshold = Math.max(1, (firstBound + shards.size() - 1) / shards.size());
+        recordCounts(counts, exchange(requestAll("AT_LEAST", String.valueOf(threshold))));
+        long secondBound = nthLargest(counts, n, false, threshold);
+
+        // Phase 3: only words whose upper bound reaches the better lower bound can still be in the top N
+        counts.values().removeIf(shardCounts -> bound(shardCounts, true, threshold) < secondBound);
+        Map<Shard, String> requests = new LinkedHashMap<>();
+        Map<Shard, List<String>> missing = new LinkedHashMap<>();
+        for (int s = 0; s < shards.size(); s++) {
+            List<String> words = new ArrayList<>();
+            for (Map.Entry<String, long[]> word : counts.entrySet()) {
+                if (word.getValue()[s] < 0) words.add(word.getKey());
+            }
+            if (words.isEmpty()) continue;
+            missing.put(shards.get(s), words);
+            requests.put(shards.get(s), request("COUNTS", words));
+        }
+        for (Map.Entry<Shard, List<String[]>> response : exchange(requests).entrySet()) {
+            int s = shards.indexOf(response.getKey());
+            List<String> words = missing.get(response.getKey());
+            for (int i = 0; i < words.size(); i++) {
+                counts.get(words.get(i))[s] = Long.parseLong(response.getValue().get(i)[0]);
+            }
+        }
+
+        HashEntry[] candidates = new HashEntry[counts.size()];
+        int i = 0;
+        for (Map.Entry<String, long[]> word : counts.entrySet()) {
+            candidates[i++] = new HashEntry(word.getKey(), Math.toIntExact(bound(word.getValue(), false, 0)));
+        }
+        Arrays.sort(candidates, Comparator.comparingInt(HashEntry::getValue).reversed()
+                .thenComparing(HashEntry::getKey));
+        return Arrays.copyOf(candidates, Math.min(n, candidates.length));
+    }
+
+    private void recordCounts(Map<String, long[]> counts, Map<Shard, List<String[]>> responses) {
+        for (Map.Entry<Shard, List<String[]>> response : responses.entrySet()) {
+            int s = shards.indexOf(response.getKey());
+            for (String[] entry : response.getValue()) {
+                long[] shardCounts = counts.computeIfAbsent(entry[0], word -> {
+                    long[] unknown = new long[shards.size()];
+                    Arrays.fill(unknown, -1);
+                    return unknown;
+                });
+                shardCounts[s] = Long.parseLong(entry[1]);
+            }
+        }
+    }
+
+    /**
+     * Returns the N-th largest bound of the words' totals, or 0 when there
+     * are fewer than N words.
+     */
+    private static long nthLargest(Map<String, long[]> counts, int n, boolean upper, long threshold) {
+        if (counts.size() < n) return 0;
+        long[] bounds = counts.values().stream().mapToLong(shardCounts -> bound(shardCounts, upper, threshold))
+                .sorted().toArray();
+        return bounds[bounds.length - n];
+    }
+
+    /**
+     * Returns a lower or upper bound of a word's total from its known counts.
+     * An unknown count is at least 0 and, after a phase with the given
+     * threshold, at most one less than it.
+     */
+    private static long bound(long[] shardCounts, boolean upper, long threshold) {
+        long total = 0;
+        for (long count : shardCounts) {
+            if (count >= 0) total += count;
+            else if (upper) total += threshold - 1;
+        }
+        return total;
+    }
+
+    private Map<Shard, List<String>> selectShards(String[] files) {
+        Map<Shard, List<String>> selection = new LinkedHashMap<>();
+        if (files.length == 0) {
+            for (Shard shard : shards) {
+                selection.put(shard, List.of());
+            }
+            return selection;
+        }
+        for (String file : files) {
+            selection.computeIfAbsent(owner(file), shard -> new ArrayList<>()).add(file);
+        }
+        return selection;
+    }
+
+    private Shard owner(String fileName) {
+        Shard shard = owners.get(fileName);
+        if (shard == null) {
+            throw new IllegalArgumentException("The document '" + fileName + "' is not held by any shard.");
+        }
+        return shard;
+    }
+
+    private Map<Shard, String> requestAll(String name, String... fields) {
+        Map<Shard, String> requests = new LinkedHashMap<>();
+        for (Shard shard : shards) {
+            requests.put(shard, request(name, List.of(), fields));
+        }
+        return requests;
+    }
+
+    /**
+     * Builds a request line: its name, the given fields, then the trailing
+     * ones, such as files or words.
+     */
+    private static String request(String name, List<String> trailing, String... fields) {
+        List<String> line = new ArrayList<>();
+        line.add(name);
+        line.addAll(Arrays.asList(fields));
+        line.addAll(trailing);
+        return String.join(ShardWorker.FIELD_SEPARATOR, line);
+    }
+
+    /**
+     * Sends every request, then reads every response in the same order. All
+     * responses are read even when one shard fails, so that each connection
+     * stays in step; the first failure is then thrown.
+     */
+    private static Map<Shard, List<String[]>> exchange(Map<Shard, String> requests) throws IOException {
+        for (Map.Entry<Shard, String> request : requests.entrySet()) {
+            request.getKey().send(request.getValue());
+        }
+        Map<Shard, List<String[]>> responses = new LinkedHashMap<>();
+        IOException failure = null;
+        for (Shard shard : requests.keySet()) {
+            try {
+                responses.put(shard, shard.receive());
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+        return responses;
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    private static class Shard implements Closeable {
+        private final int port;
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final Writer writer;
+
+        Shard(int port) throws IOException {
+            this.port = port;
+            try {
+                this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (IOException e) {
+                throw new IOException("The shard on port " + port + " is not reachable: " + e.getMessage(), e);
+            }
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String request) throws IOException {
+            writer.write(request);
+            writer.write('\n');
+            writer.flush();
+        }
+
+        List<String[]> receive() throws IOException {
+            List<String[]> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals(ShardWorker.END_OF_RESPONSE)) {
+                lines.add(line.split(ShardWorker.FIELD_SEPARATOR, -1));
+            }
+            if (line == null) {
+                throw new IOException("The shard on port " + port + " closed the connection.");
+            }
+            if (lines.size() == 1 && lines.get(0).length == 2 && lines.get(0)[0].equals(ShardWorker.ERROR)) {
+                throw new IOException("The shard on port " + port + " failed: " + lines.get(0)[1]);
+            }
+            return lines;
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing is left to read from a shard being closed
+            }
+        }
+    }
+}
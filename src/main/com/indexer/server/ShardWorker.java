@@ -0,0 +1,243 @@
+package com.indexer.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import com.indexer.models.HashEntry;
+import com.indexer.models.SearchResult;
+import com.indexer.structures.IndexStore;
+import com.indexer.structures.SearchEngine;
+import com.indexer.structures.WordFrequencyIndexer;
+
+/**
+ * Holds one shard of a corpus split across several processes, and answers
+ * the partial requests of a {@link ShardCoordinator}.
+ *
+ * Each request is one line of tab-separated fields, starting with the request
+ * name; the response is zero or more lines of tab-separated fields followed
+ * by a line containing only {@code END}, or a single {@code ERROR} line with
+ * the message before it. The requests are:
+ *
+ * <ul>
+ *   <li>{@code DOCUMENTS}: the name of every document of the shard.</li>
+ *   <li>{@code STATISTICS terms [file ...]}: the number of documents, their
+ *       total length and the number of documents containing each term.</li>
+ *   <li>{@code SCORE tfidf|bm25 k documents averageLength frequencies terms [file ...]}:
+ *       the documents scored against the statistics of the whole collection,
+ *       best first, the K best only for BM25.</li>
+ *   <li>{@code TOP n [file]}: the N most frequent words of the shard, or of one document.</li>
+ *   <li>{@code AT_LEAST count}: every word of the shard occurring at least that many times.</li>
+ *   <li>{@code COUNTS word ...}: the occurrences of each word in the shard.</li>
+ * </ul>
+ *
+ * Terms and document frequencies are separated by spaces. Requests without
+ * files cover every document of the shard. The documents are loaded before
+ * the first request is accepted and never modified afterwards, so concurrent
+ * requests read them without locking.
+ */
+public class ShardWorker {
+    static final String FIELD_SEPARATOR = "\t";
+    static final String END_OF_RESPONSE = "END";
+    static final String ERROR = "ERROR";
+
+    private final Map<String, WordFrequencyIndexer> documents;
+    private final WordFrequencyIndexer shard;
+
+    private ShardWorker(Map<String, WordFrequencyIndexer> documents) {
+        this.documents = documents;
+        this.shard = WordFrequencyIndexer.combine("shard", documents.values());
+    }
+
+    /**
+     * Loads the documents of the shard, using saved indexes when they are fresh.
+     *
+     * @param files the documents owned by the shard, in the docs directory
+     * @param parallelism the number of threads used to tokenize documents without a fresh index
+     * @return a worker holding the loaded documents
+     * @throws IOException if a document cannot be read
+     */
+    public static ShardWorker load(String[] files, int parallelism) throws IOException {
+        Map<String, WordFrequencyIndexer> documents = new TreeMap<>();
+        for (String file : files) {
+            if (!documents.containsKey(file)) documents.put(file, IndexStore.open(file, parallelism));
+        }
+        IndexStore.refreshCorpusIndex(parallelism);
+        System.err.printf("Loaded %d document(s) into the shard.%n", documents.size());
+        return new ShardWorker(documents);
+    }
+
+    /**
+     * Accepts coordinators on a loopback port until the process is stopped,
+     * serving each connection on its own thread.
+     *
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be opened
+     */
+    public void serveSocket(int port) throws IOException {
+        ExecutorService executor = QueryServer.newClientExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.err.printf("Shard listening on %s:%d.%n", serverSocket.getInetAddress().getHostAddress(), port);
+            while (true) {
+                Socket client = serverSocket.accept();
+                executor.execute(() -> serveClient(client));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void serveClient(Socket client) {
+        try (client) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            Writer writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(answer(line));
+                writer.write(END_OF_RESPONSE + "\n");
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Answers a single request line.
+     *
+     * @param line the request
+     * @return the response lines, each ending with a newline, without the END line
+     */
+    String answer(String line) {
+        String[] fields = line.split(FIELD_SEPARATOR, -1);
+        StringBuilder response = new StringBuilder();
+        try {
+            switch (fields[0]) {
+                case "DOCUMENTS":
+                    for (String document : documents.keySet()) {
+                        appendLine(response, document);
+                    }
+                    break;
+                case "STATISTICS":
+                    appendStatistics(response, splitTerms(fields[1]), selectDocuments(fields, 2));
+                    break;
+                case "SCORE":
+                    appendScores(response, fields);
+                    break;
+                case "TOP": {
+                    int n = Integer.parseInt(fields[1]);
+                    WordFrequencyIndexer source = fields.length > 2 ? document(fields[2]) : shard;
+                    appendEntries(response, source.getTopFrequencies(n));
+                    break;
+                }
+                case "AT_LEAST":
+                    appendEntries(response, shard.getFrequenciesAtLeast(Integer.parseInt(fields[1])));
+                    break;
+                case "COUNTS":
+                    for (int i = 1; i < fields.length; i++) {
+                        appendLine(response, String.valueOf(shard.getWordFrequency(fields[i])));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown shard request '" + fields[0] + "'.");
+            }
+        } catch (RuntimeException e) {
+            response.setLength(0);
+            appendLine(response, ERROR, String.valueOf(e.getMessage()));
+        }
+        return response.toString();
+    }
+
+    private void appendStatistics(StringBuilder response, String[] terms, String[] selected) {
+        long totalLength = 0;
+        String[] documentFrequencies = new String[terms.length];
+        int[] counts = new int[terms.length];
+        for (String name : selected) {
+            WordFrequencyIndexer document = documents.get(name);
+            totalLength += document.getTotalTokenCount();
+            for (int t = 0; t < terms.length; t++) {
+                if (document.getWordFrequency(terms[t]) > 0) counts[t]++;
+            }
+        }
+        for (int t = 0; t < terms.length; t++) {
+            documentFrequencies[t] = String.valueOf(counts[t]);
+        }
+        appendLine(response, String.valueOf(selected.length), String.valueOf(totalLength),
+                String.join(" ", documentFrequencies));
+    }
+
+    private void appendScores(StringBuilder response, String[] fields) {
+        boolean bm25 = fields[1].equals("bm25");
+        int k = Integer.parseInt(fields[2]);
+        int documentCount = Integer.parseInt(fields[3]);
+        double averageLength = Double.parseDouble(fields[4]);
+        int[] documentFrequencies = Arrays.stream(splitTerms(fields[5])).mapToInt(Integer::parseInt).toArray();
+        String[] terms = splitTerms(fields[6]);
+        String[] selected = selectDocuments(fields, 7);
+
+        long[] documentLengths = new long[selected.length];
+        int[][] termCounts = new int[selected.length][terms.length];
+        for (int d = 0; d < selected.length; d++) {
+            WordFrequencyIndexer document = documents.get(selected[d]);
+            documentLengths[d] = document.getTotalTokenCount();
+            for (int t = 0; t < terms.length; t++) {
+                termCounts[d][t] = document.getWordFrequency(terms[t]);
+            }
+        }
+        SearchResult[] results = bm25
+                ? SearchEngine.searchTopK(selected, documentLengths, termCounts, k, documentCount,
+                        averageLength, documentFrequencies)
+                : SearchEngine.search(selected, documentLengths, termCounts, documentCount, documentFrequencies);
+        for (SearchResult result : results) {
+            // Double.toString keeps every bit, so merged rankings match a single process exactly
+            appendLine(response, Double.toString(result.getScore()), result.getFileName());
+        }
+    }
+
+    /**
+     * Returns the documents named from the given field on, sorted and without
+     * duplicates, or every document of the shard when none is named.
+     */
+    private String[] selectDocuments(String[] fields, int from) {
+        if (fields.length <= from) return documents.keySet().toArray(new String[0]);
+        String[] selected = Arrays.stream(fields, from, fields.length).distinct().sorted().toArray(String[]::new);
+        for (String name : selected) {
+            document(name);
+        }
+        return selected;
+    }
+
+    private WordFrequencyIndexer document(String fileName) {
+        WordFrequencyIndexer indexer = documents.get(fileName);
+        if (indexer == null) {
+            throw new IllegalArgumentException("The document '" + fileName + "' is not in this shard.");
+        }
+        return indexer;
+    }
+
+    private static String[] splitTerms(String field) {
+        return field.isEmpty() ? new String[0] : field.split(" ");
+    }
+
+    private static void appendEntries(StringBuilder response, HashEntry[] entries) {
+        for (HashEntry entry : entries) {
+            appendLine(response, entry.getKey(), String.valueOf(entry.getValue()));
+        }
+    }
+
+    private static void appendLine(StringBuilder response, String... fields) {
+        response.append(String.join(FIELD_SEPARATOR, fields)).append('\n');
+    }
+}
@@ -0,0 +1,99 @@
+package com.indexer.sorting_algorithms;
+
+import java.util.function.Consumer;
+
+import com.indexer.models.HashEntry;
+import com.indexer.structures.TermDictionary;
+import com.indexer.structures.WordCountTable;
+
+/**
+ * Packs word counts and word ids into single long keys so they can be sorted
+ * as primitives.
+ *
+ * The high 32 bits hold {@code Integer.MAX_VALUE - count} and the low 32 bits
+ * the word's dictionary id, so sorting the keys in ascending order ranks the
+ * words by descending count. Ids follow the order in which words were first
+ * seen, so words with equal counts are put in alphabetical order afterwards.
+ */
+public class PackedKeys {
+
+    public static long pack(int count, int id) {
+        return ((long) (Integer.MAX_VALUE - count) << 32) | id;
+    }
+
+    public static int countOf(long key) {
+        return Integer.MAX_VALUE - (int) (key >>> 32);
+    }
+
+    public static int idOf(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Ranks every word of a table by descending count, words with equal
+     * counts alphabetically, as {@link TopKSelection} does. The keys are built
+     * straight from the table's slots and sorted as primitives; words are only
+     * looked up in the dictionary to order ties and to build the result.
+     *
+     * @param table the table to rank, no longer being resized
+     * @param keySorter sorts a key array in ascending order, in place
+     * @return one entry per word, most frequent first
+     */
+    public static HashEntry[] sortTable(WordCountTable table, Consumer<long[]> keySorter) {
+        long[] keys = new long[table.size()];
+        int i = 0;
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (table.isOccupied(slot)) {
+                keys[i++] = pack(table.countAt(slot), table.termAt(slot));
+            }
+        }
+
+        keySorter.accept(keys);
+
+        TermDictionary dictionary = table.getDictionary();
+        long[] buffer = null;
+        for (int from = 0; from < keys.length; ) {
+            int to = from + 1;
+            while (to < keys.length && (keys[to] >>> 32) == (keys[from] >>> 32)) {
+                to++;
+            }
+            if (to - from > 1) {
+                if (buffer == null) buffer = new long[keys.length];
+                sortByWord(keys, buffer, from, to, dictionary);
+            }
+            from = to;
+        }
+
+        HashEntry[] entries = new HashEntry[keys.length];
+        for (int j = 0; j < keys.length; j++) {
+            entries[j] = new HashEntry(dictionary.term(idOf(keys[j])), countOf(keys[j]));
+        }
+        return entries;
+    }
+
+    /**
+     * Merge-sorts a range of keys with equal counts by the bytes of their words.
+     */
+    private static void sortByWord(long[] keys, long[] buffer, int from, int to, TermDictionary dictionary) {
+        if (to - from < 2) return;
+        int middle = (from + to) >>> 1;
+        sortByWord(keys, buffer, from, middle, dictionary);
+        sortByWord(keys, buffer, middle, to, dictionary);
+        if (dictionary.compare(idOf(keys[middle - 1]), idOf(keys[middle])) <= 0) return;
+        System.arraycopy(keys, from, buffer, from, to - from);
+        int left = from, right = middle, result = from;
+        while (left < middle && right < to) {
+            if (dictionary.compare(idOf(buffer[left]), idOf(buffer[right])) <= 0) {
+                keys[result++] = buffer[left++];
+            } else {
+                keys[result++] = buffer[right++];
+            }
+        }
+        while (left < middle) {
+            keys[result++] = buffer[left++];
+        }
+        while (right < to) {
+            keys[result++] = buffer[right++];
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.indexer.sorting_algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelMergeSort {
+    private static final int SEQUENTIAL_CUTOFF = 1 << 13;
+    private static final int INSERTION_SORT_CUTOFF = 32;
+
+    /**
+     * Sorts an array of packed keys in ascending order using a fork-join
+     * Merge Sort. Halves larger than the sequential cutoff are sorted in
+     * parallel; smaller ones are sorted on the current thread.
+     *
+     * @param arrayToSort the keys to sort
+     * @return the sorted array
+     */
+    public static long[] parallelMergeSort(long[] arrayToSort) {
+        long[] buffer = new long[arrayToSort.length];
+        ForkJoinPool.commonPool().invoke(new SortTask(arrayToSort, buffer, 0, arrayToSort.length));
+        return arrayToSort;
+    }
+
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] array;
+        private final long[] buffer;
+        private final int low;
+        private final int high;
+
+        SortTask(long[] array, long[] buffer, int low, int high) {
+            this.array = array;
+            this.buffer = buffer;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low <= SEQUENTIAL_CUTOFF) {
+                sortSequential(array, buffer, low, high);
+                return;
+            }
+            int middle = (low + high) >>> 1;
+            invokeAll(new SortTask(array, buffer, low, middle), new SortTask(array, buffer, middle, high));
+            merge(array, buffer, low, middle, high);
+        }
+    }
+
+    private static void sortSequential(long[] array, long[] buffer, int low, int high) {
+        if (high - low <= INSERTION_SORT_CUTOFF) {
+            insertionSort(array, low, high);
+            return;
+        }
+        int middle = (low + high) >>> 1;
+        sortSequential(array, buffer, low, middle);
+        sortSequential(array, buffer, middle, high);
+        merge(array, buffer, low, middle, high);
+    }
+
+    private static void merge(long[] array, long[] buffer, int low, int middle, int high) {
+        if (array[middle - 1] <= array[middle]) return;
+        System.arraycopy(array, low, buffer, low, high - low);
+
+        int leftIndex = low, rightIndex = middle, resultIndex = low;
+        while (leftIndex < middle && rightIndex < high) {
+            if (buffer[leftIndex] <= buffer[rightIndex]) {
+                array[resultIndex++] = buffer[leftIndex++];
+            } else {
+                array[resultIndex++] = buffer[rightIndex++];
+            }
+        }
+        while (leftIndex < middle) {
+            array[resultIndex++] = buffer[leftIndex++];
+        }
+        while (rightIndex < high) {
+            array[resultIndex++] = buffer[rightIndex++];
+        }
+    }
+
+    private static void insertionSort(long[] array, int low, int high) {
+        for (int i = low + 1; i < high; i++) {
+            long key = array[i];
+            int j = i - 1;
+            while (j >= low && array[j] > key) {
+                array[j + 1] = array[j];
+                j--;
+            }
+            array[j + 1] = key;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.indexer.sorting_algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelQuickSort {
+    private static final int SEQUENTIAL_CUTOFF = 1 << 13;
+    private static final int INSERTION_SORT_CUTOFF = 32;
+
+    /**
+     * Sorts an array of packed keys in ascending order using a fork-join
+     * Quick Sort. The pivot is the median of the first, middle and last keys,
+     * which avoids the shuffle of the sequential Quick Sort; partitions larger
+     * than the sequential cutoff are sorted in parallel.
+     *
+     * @param arrayToSort the keys to sort
+     * @return the sorted array
+     */
+    public static long[] parallelQuickSort(long[] arrayToSort) {
+        ForkJoinPool.commonPool().invoke(new SortTask(arrayToSort, 0, arrayToSort.length - 1));
+        return arrayToSort;
+    }
+
+    private static class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] array;
+        private final int low;
+        private final int high;
+
+        SortTask(long[] array, int low, int high) {
+            this.array = array;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low < SEQUENTIAL_CUTOFF) {
+                sortSequential(array, low, high);
+                return;
+            }
+            int partitionIndex = partition(array, low, high);
+            invokeAll(new SortTask(array, low, partitionIndex), new SortTask(array, partitionIndex + 1, high));
+        }
+    }
+
+    private static void sortSequential(long[] array, int low, int high) {
+        while (high - low >= INSERTION_SORT_CUTOFF) {
+            int partitionIndex = partition(array, low, high);
+            if (partitionIndex - low < high - partitionIndex) {
+                sortSequential(array, low, partitionIndex);
+                low = partitionIndex + 1;
+            } else {
+                sortSequential(array, partitionIndex + 1, high);
+                high = partitionIndex;
+            }
+        }
+        insertionSort(array, low, high);
+    }
+
+    /**
+     * Hoare partition around the median of three; returns an index p such
+     * that every key in [low, p] is at most every key in [p + 1, high].
+     */
+    private static int partition(long[] array, int low, int high) {
+        int middle = (low + high) >>> 1;
+        if (array[middle] < array[low]) swap(array, middle, low);
+        if (array[high] < array[low]) swap(array, high, low);
+        if (array[high] < array[middle]) swap(array, high, middle);
+        long pivot = array[middle];
+
+        int i = low - 1, j = high + 1;
+        while (true) {
+            do {
+                i++;
+            } while (array[i] < pivot);
+            do {
+                j--;
+            } while (array[j] > pivot);
+            if (i >= j) return j;
+            swap(array, i, j);
+        }
+    }
+
+    private static void insertionSort(long[] array, int low, int high) {
+        for (int i = low + 1; i <= high; i++) {
+            long key = array[i];
+            int j = i - 1;
+            while (j >= low && array[j] > key) {
+                array[j + 1] = array[j];
+                j--;
+            }
+            array[j + 1] = key;
+        }
+    }
+
+    private static void swap(long[] array, int i, int j) {
+        long temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+}
@@ -1,7 +1,7 @@
 package com.indexer.sorting_algorithms;
 
 import java.util.Comparator;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.indexer.models.HashEntry;
 
@@ -27,7 +27,7 @@ public class QuickSort {
     }
 
     private static void shuffle(HashEntry[] arrayToSort) {
-        Random rand = new Random();
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
         for (int i = 0; i < arrayToSort.length - 1; i++) {
             int j = i + rand.nextInt(arrayToSort.length - i);
             swap(arrayToSort, i, j);
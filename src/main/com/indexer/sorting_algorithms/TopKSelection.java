@@ -0,0 +1,86 @@
+package com.indexer.sorting_algorithms;
+
+import com.indexer.models.HashEntry;
+import com.indexer.structures.WordCountTable;
+
+public class TopKSelection {
+
+    /**
+     * Selects the K most frequent words of a table using a bounded min-heap
+     * of slot indexes, in O(V log K) time and O(K) extra memory. Only the K
+     * selected words are turned into HashEntry objects.
+     *
+     * Words with equal counts are ranked alphabetically, so the result does
+     * not depend on the table's layout.
+     *
+     * @param table the table to select from
+     * @param k the number of words to select
+     * @return at most K entries, most frequent first
+     */
+    public static HashEntry[] selectTopK(WordCountTable table, int k) {
+        int[] heap = new int[Math.min(k, table.size())];
+        int size = 0;
+
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (!table.isOccupied(slot)) continue;
+            if (size < heap.length) {
+                heap[size] = slot;
+                siftUp(table, heap, size++);
+            } else if (size > 0 && ranksHigher(table, slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(table, heap, 0, size);
+            }
+        }
+
+        HashEntry[] topEntries = new HashEntry[size];
+        for (int i = size - 1; i >= 0; i--) {
+            topEntries[i] = new HashEntry(table.keyAt(heap[0]), table.countAt(heap[0]));
+            heap[0] = heap[i];
+            siftDown(table, heap, 0, i);
+        }
+        return topEntries;
+    }
+
+    private static boolean ranksHigher(WordCountTable table, int slot, int otherSlot) {
+        int count = table.countAt(slot);
+        int otherCount = table.countAt(otherSlot);
+        if (count != otherCount) {
+            return count > otherCount;
+        }
+        return table.compareKeys(slot, otherSlot) < 0;
+    }
+
+    private static void siftUp(WordCountTable table, int[] heap, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!ranksHigher(table, heap[parent], heap[index])) break;
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(WordCountTable table, int[] heap, int index, int size) {
+        while (true) {
+            int lowest = index;
+            int left = 2 * index + 1;
+            int right = 2 * index + 2;
+
+            if (left < size && ranksHigher(table, heap[lowest], heap[left])) {
+                lowest = left;
+            }
+            if (right < size && ranksHigher(table, heap[lowest], heap[right])) {
+                lowest = right;
+            }
+            if (lowest == index) return;
+
+            swap(heap, index, lowest);
+            index = lowest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int temp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = temp;
+    }
+}
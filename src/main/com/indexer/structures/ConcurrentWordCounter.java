@@ -0,0 +1,404 @@
+package com.indexer.structures;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.indexer.models.HashEntry;
+import com.indexer.sorting_algorithms.TopKSelection;
+import com.indexer.utils.WordTokenizer;
+
+/**
+ * Word counter that many threads can feed at once.
+ *
+ * Words are spread over independent stripes by hash. Each stripe is an
+ * open-addressing table of dictionary ids whose counts live in an
+ * {@link AtomicIntegerArray}, so counting a word the stripe already holds is
+ * a lock-free probe followed by a compare-and-set. Only inserting a new word
+ * or growing a stripe takes the stripe's lock. A word whose compare-and-set
+ * keeps failing because other threads are counting it too is promoted to a
+ * {@link LongAdder}, which spreads its updates over several cells.
+ *
+ * Readers never block: {@link #getWordFrequency(String)} probes the current
+ * arrays without locking. A stripe grows by copying each count to the new
+ * arrays before marking the old slot as moved, so a reader that meets a moved
+ * slot finds the same count in the new arrays.
+ *
+ * Every write call holds the shared side of a read-write lock, and
+ * {@link #snapshot()} takes the exclusive side, so a snapshot contains each
+ * batch given to {@link #addAll(WordCountTable)} either entirely or not at
+ * all. Feed words in batches where possible: the shared lock is taken once
+ * per call.
+ */
+public class ConcurrentWordCounter {
+    private static final int MOVED = Integer.MIN_VALUE;
+    private static final int HOT = Integer.MIN_VALUE + 1;
+    private static final int EMPTY = -1;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+    private static final int CONTENDED_ATTEMPTS = 2;
+    private static final int FLUSH_BYTES = 1 << 20;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final TermDictionary dictionary = TermDictionary.shared();
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final LongAdder totalCount = new LongAdder();
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    public ConcurrentWordCounter() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Creates a counter with at least the given number of stripes.
+     *
+     * @param concurrencyLevel the expected number of writing threads times a small factor
+     */
+    public ConcurrentWordCounter(int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("The concurrency level must be positive.");
+        }
+        int stripeCount = Integer.highestOneBit(Math.min(concurrencyLevel, 1 << 16) * 2 - 1);
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeShift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+    }
+
+    /**
+     * Adds the given amount to the count of a word.
+     *
+     * @param word the lowercase word
+     * @param delta the positive amount to add
+     */
+    public void add(String word, int delta) {
+        checkDelta(delta);
+        int hash = WordCountTable.spread(word.hashCode());
+        snapshotLock.readLock().lock();
+        try {
+            Stripe stripe = stripeFor(hash);
+            Segment segment = stripe.segment;
+            int slot = segment.find(word, hash);
+            if (slot < 0) {
+                stripe.addNew(dictionary.intern(word), hash, delta);
+            } else {
+                stripe.addAt(segment, slot, delta);
+            }
+            totalCount.add(delta);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds every count of a batch, such as a table filled by a
+     * {@link WordTokenizer}. The batch is added atomically with respect to
+     * {@link #snapshot()}. The batch must store its words in the shared dictionary.
+     *
+     * @param batch the counts to add, no longer being resized
+     */
+    public void addAll(WordCountTable batch) {
+        if (batch.getDictionary() != dictionary) {
+            throw new IllegalArgumentException("The batch must use the shared term dictionary.");
+        }
+        snapshotLock.readLock().lock();
+        try {
+            for (int slot = 0; slot < batch.capacity(); slot++) {
+                if (!batch.isOccupied(slot)) continue;
+                int id = batch.termAt(slot);
+                int hash = WordCountTable.spread(dictionary.hashOf(id));
+                Stripe stripe = stripeFor(hash);
+                Segment segment = stripe.segment;
+                int found = segment.find(id, hash);
+                if (found < 0) {
+                    stripe.addNew(id, hash, batch.countAt(slot));
+                } else {
+                    stripe.addAt(segment, found, batch.countAt(slot));
+                }
+            }
+            totalCount.add(batch.getTotalCount());
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the words of a file from the docs directory. Several threads can
+     * populate the same counter from different files at once: each tokenizes
+     * into a private batch that is added every megabyte of input.
+     *
+     * @param fileName the name of the file to process
+     * @throws IOException if the file cannot be read
+     */
+    public void populateFromFile(String fileName) throws IOException {
+        WordCountTable batch = new WordCountTable();
+        WordTokenizer tokenizer = new WordTokenizer(batch);
+        try (FileChannel channel = FileChannel.open(Paths.get("docs", fileName), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            long unflushed = 0;
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                buffer.flip();
+                tokenizer.feed(buffer);
+                buffer.clear();
+                unflushed += read;
+                if (unflushed >= FLUSH_BYTES) {
+                    // The word cut by the buffer stays in the tokenizer and goes into the next batch
+                    batch.finishResize();
+                    addAll(batch);
+                    batch.clear();
+                    unflushed = 0;
+                }
+            }
+        }
+        tokenizer.finish();
+        addAll(batch);
+    }
+
+    /**
+     * Returns the count of a word without blocking, or 0 if it was never counted.
+     *
+     * @param word the word to look up
+     * @return the number of occurrences recorded so far
+     */
+    public int getWordFrequency(String word) {
+        int hash = WordCountTable.spread(word.hashCode());
+        Stripe stripe = stripeFor(hash);
+        Segment segment = stripe.segment;
+        int slot = segment.find(word, hash);
+        while (slot >= 0) {
+            int count = segment.counts.get(slot);
+            if (count == HOT) {
+                return (int) stripe.hotCounts.get(segment.terms.get(slot)).sum();
+            }
+            if (count != MOVED) {
+                return count;
+            }
+            segment = segment.next;
+            slot = segment.find(word, hash);
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of words counted so far, including repeated occurrences.
+     */
+    public long getTotalTokenCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Copies the counts into a new table while writers are held off, so the
+     * copy reflects a single point in time.
+     *
+     * @return a table holding every word counted so far
+     */
+    public WordCountTable snapshot() {
+        snapshotLock.writeLock().lock();
+        try {
+            int size = 0;
+            for (Stripe stripe : stripes) {
+                size += stripe.size;
+            }
+            WordCountTable table = new WordCountTable(size);
+            for (Stripe stripe : stripes) {
+                Segment segment = stripe.segment;
+                for (int slot = 0; slot < segment.hashes.length; slot++) {
+                    int id = segment.terms.get(slot);
+                    if (id != EMPTY) {
+                        table.incrementTerm(id, stripe.countOf(segment, slot));
+                    }
+                }
+            }
+            table.finishResize();
+            return table;
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the top N most frequent words of a consistent snapshot. Words
+     * with equal counts are ranked alphabetically.
+     *
+     * @param n the number of top frequencies to retrieve
+     * @return at most N entries, most frequent first
+     */
+    public HashEntry[] getTopFrequencies(int n) {
+        return TopKSelection.selectTopK(snapshot(), n);
+    }
+
+    private Stripe stripeFor(int hash) {
+        return stripes[(hash * 0x9E3779B9) >>> stripeShift & (stripes.length - 1)];
+    }
+
+    private static void checkDelta(int delta) {
+        if (delta <= 0) {
+            throw new IllegalArgumentException("Counts can only grow.");
+        }
+    }
+
+    /**
+     * One stripe of the counter. Its current segment is replaced, under the
+     * stripe's lock, when it grows.
+     */
+    private final class Stripe {
+        volatile Segment segment = new Segment(INITIAL_STRIPE_CAPACITY);
+        final Map<Integer, LongAdder> hotCounts = new ConcurrentHashMap<>();
+        int size;
+
+        /**
+         * Adds to the count held in an occupied slot, following the segment
+         * that replaced it if the slot has moved.
+         */
+        void addAt(Segment segment, int slot, int delta) {
+            int failures = 0;
+            while (true) {
+                int count = segment.counts.get(slot);
+                if (count == MOVED) {
+                    int id = segment.terms.get(slot);
+                    int hash = segment.hashes[slot];
+                    segment = segment.next;
+                    slot = segment.find(id, hash);
+                    continue;
+                }
+                if (count == HOT) {
+                    hotCounts.get(segment.terms.get(slot)).add(delta);
+                    return;
+                }
+                if (segment.counts.compareAndSet(slot, count, count + delta)) {
+                    return;
+                }
+                if (++failures == CONTENDED_ATTEMPTS) {
+                    promote(segment.terms.get(slot), segment.hashes[slot]);
+                }
+            }
+        }
+
+        /**
+         * Inserts a word missing from the segment read by the caller, or adds
+         * to it if another thread inserted it meanwhile.
+         */
+        synchronized void addNew(int id, int hash, int delta) {
+            Segment current = segment;
+            int slot = current.find(id, hash);
+            if (slot >= 0) {
+                addAt(current, slot, delta);
+                return;
+            }
+            current.insert(id, hash, delta);
+            if (++size > current.hashes.length / 2) {
+                grow();
+            }
+        }
+
+        /**
+         * Moves the count of a contended word to a {@link LongAdder}.
+         */
+        synchronized void promote(int id, int hash) {
+            Segment current = segment;
+            int slot = current.find(id, hash);
+            while (true) {
+                int count = current.counts.get(slot);
+                if (count == HOT) return;
+                LongAdder adder = new LongAdder();
+                adder.add(count);
+                hotCounts.put(id, adder);
+                if (current.counts.compareAndSet(slot, count, HOT)) return;
+            }
+        }
+
+        int countOf(Segment segment, int slot) {
+            int count = segment.counts.get(slot);
+            return count == HOT ? (int) hotCounts.get(segment.terms.get(slot)).sum() : count;
+        }
+
+        /**
+         * Copies every word into a segment of twice the capacity. Each count is
+         * written to the new segment before its old slot is marked as moved,
+         * retrying if a writer changed it in between.
+         */
+        private void grow() {
+            Segment old = segment;
+            Segment grown = new Segment(old.hashes.length * 2);
+            old.next = grown;
+            for (int slot = 0; slot < old.hashes.length; slot++) {
+                int id = old.terms.get(slot);
+                if (id == EMPTY) continue;
+                int newSlot = grown.insert(id, old.hashes[slot], old.counts.get(slot));
+                while (true) {
+                    int count = old.counts.get(slot);
+                    grown.counts.set(newSlot, count);
+                    if (count == HOT) {
+                        old.counts.set(slot, MOVED);
+                        break;
+                    }
+                    if (old.counts.compareAndSet(slot, count, MOVED)) break;
+                }
+            }
+            segment = grown;
+        }
+    }
+
+    /**
+     * Open-addressing arrays of one stripe. An id is published by writing its
+     * slot in {@code terms} last, so a reader that sees it also sees its hash
+     * and count.
+     */
+    private final class Segment {
+        final AtomicIntegerArray terms;
+        final int[] hashes;
+        final AtomicIntegerArray counts;
+        final int mask;
+        volatile Segment next;
+
+        Segment(int capacity) {
+            terms = new AtomicIntegerArray(capacity);
+            for (int slot = 0; slot < capacity; slot++) {
+                terms.lazySet(slot, EMPTY);
+            }
+            hashes = new int[capacity];
+            counts = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+
+        int find(int id, int hash) {
+            int slot = hash & mask;
+            int term;
+            while ((term = terms.get(slot)) != EMPTY) {
+                if (term == id) return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        int find(String word, int hash) {
+            int slot = hash & mask;
+            int term;
+            while ((term = terms.get(slot)) != EMPTY) {
+                if (hashes[slot] == hash && dictionary.matches(term, word)) return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        int insert(int id, int hash, int count) {
+            int slot = hash & mask;
+            while (terms.get(slot) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            counts.set(slot, count);
+            terms.set(slot, id);
+            return slot;
+        }
+    }
+}
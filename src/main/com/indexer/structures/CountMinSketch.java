@@ -0,0 +1,118 @@
+package com.indexer.structures;
+
+/**
+ * Count-Min sketch of word frequencies in a fixed number of counters.
+ *
+ * The sketch is a grid of {@code depth} rows of {@code width} counters; a word
+ * adds to one counter per row, chosen by its 64-bit hash, and its estimate is
+ * the smallest of those counters. Counters are only ever increased, so an
+ * estimate is never below the true count. Over N words it exceeds it by more
+ * than {@code e / width * N} with probability at most {@code e^-depth}.
+ *
+ * Words are added with conservative update, raising only the counters that are
+ * below the new estimate, which keeps collisions from inflating the others.
+ * Sketches of the same shape are merged by adding their counters.
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long totalCount;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param width the number of counters per row
+     * @param depth the number of rows
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("The sketch width and depth must be positive.");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[Math.multiplyExact(width, depth)];
+    }
+
+    /**
+     * Returns the memory used by the counters of a sketch of the given shape.
+     */
+    public static long memoryUsage(int width, int depth) {
+        return (long) width * depth * Long.BYTES;
+    }
+
+    /**
+     * Adds occurrences of a word.
+     *
+     * @param hash the word's 64-bit hash
+     * @param count the number of occurrences
+     * @return the word's estimate after the update
+     */
+    public long add(long hash, long count) {
+        long target = estimate(hash) + count;
+        for (int row = 0; row < depth; row++) {
+            int index = index(hash, row);
+            if (counters[index] < target) counters[index] = target;
+        }
+        totalCount += count;
+        return target;
+    }
+
+    /**
+     * Returns an upper bound of the occurrences of a word.
+     *
+     * @param hash the word's 64-bit hash
+     */
+    public long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[index(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds the counts of another sketch of the same shape to this one.
+     *
+     * @throws IllegalArgumentException if the shapes differ
+     */
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Only sketches of the same shape can be merged.");
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Returns the amount by which an estimate exceeds the true count with
+     * probability at least {@link #getConfidence()}.
+     */
+    public long getErrorBound() {
+        return (long) Math.ceil(Math.E / width * totalCount);
+    }
+
+    public double getConfidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    // Rows combine two halves of the hash (Kirsch-Mitzenmacher) and map the result onto the width without division
+    private int index(long hash, int row) {
+        int combined = (int) hash + row * ((int) (hash >>> 32) | 1);
+        return row * width + (int) (((combined & 0xFFFFFFFFL) * width) >>> 32);
+    }
+}
@@ -0,0 +1,312 @@
+package com.indexer.structures;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import com.indexer.metrics.Metrics;
+import com.indexer.models.ApproximateEntry;
+import com.indexer.utils.WordTokenizer;
+
+/**
+ * Approximate word counts in a fixed amount of memory, for finding the most
+ * frequent words of inputs too large to count exactly.
+ *
+ * Every word goes into a {@link SpaceSavingSummary}, which keeps the
+ * candidate heavy hitters with a lower and an upper bound of their counts,
+ * and into a {@link CountMinSketch}, whose estimate tightens the upper bound.
+ * The Count-Min estimate also keeps rare words from evicting monitored ones.
+ * The interval reported for each word always contains its true count. The
+ * Count-Min error is also bounded for the whole input: estimates exceed the
+ * true counts by at most {@code e / width * N} with high probability.
+ *
+ * Sketches of the same shape are mergeable, so chunks of a file are counted
+ * into separate sketches on several threads and merged as the tasks join.
+ */
+public class HeavyHitterSketch {
+    private static final int DEPTH = 4;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SpaceSavingSummary summary;
+    private final CountMinSketch sketch;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param counters the number of words monitored at once
+     * @param width the number of Count-Min counters per row
+     */
+    public HeavyHitterSketch(int counters, int width) {
+        this.summary = new SpaceSavingSummary(counters);
+        this.sketch = new CountMinSketch(width, DEPTH);
+    }
+
+    /**
+     * Creates a sketch using about the given amount of memory, split evenly
+     * between the monitored words and the Count-Min counters.
+     *
+     * @param bytes the memory footprint
+     * @throws IllegalArgumentException if the footprint is too small for a single counter
+     */
+    public static HeavyHitterSketch withMemory(long bytes) {
+        long counters = bytes / 2 / SpaceSavingSummary.BYTES_PER_COUNTER;
+        long width = bytes / 2 / CountMinSketch.memoryUsage(1, DEPTH);
+        if (counters == 0 || width == 0) {
+            throw new IllegalArgumentException("The sketch needs at least "
+                    + 2 * SpaceSavingSummary.BYTES_PER_COUNTER + " bytes.");
+        }
+        return new HeavyHitterSketch((int) Math.min(counters, Integer.MAX_VALUE / 4),
+                (int) Math.min(width, Integer.MAX_VALUE / DEPTH));
+    }
+
+    /**
+     * Creates a sketch whose estimates exceed the true counts by at most the
+     * given fraction of the words read, with the probability of
+     * {@link #getConfidence()}.
+     *
+     * @param epsilon the relative error, between 0 and 1
+     */
+    public static HeavyHitterSketch withErrorBound(double epsilon) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("The error bound must be between 0 and 1.");
+        }
+        return new HeavyHitterSketch((int) Math.min(Math.ceil(1 / epsilon), Integer.MAX_VALUE / 4),
+                (int) Math.min(Math.ceil(Math.E / epsilon), Integer.MAX_VALUE / DEPTH));
+    }
+
+    /**
+     * Returns an empty sketch of the same shape, which can be merged into this one.
+     */
+    public HeavyHitterSketch emptyCopy() {
+        return new HeavyHitterSketch(summary.getCapacity(), sketch.getWidth());
+    }
+
+    /**
+     * Counts the words of a file on several threads. The file is split into
+     * chunks as by {@link ParallelWordCounter}, each chunk is counted into an
+     * empty copy of the given sketch, and the copies are merged. Each thread
+     * therefore holds sketches of the given shape only.
+     *
+     * @param filePath the file to process
+     * @param parallelism the number of worker threads
+     * @param shape the sketch whose shape the result has; it is not modified
+     * @return a sketch of the words in the file
+     * @throws IOException if the file cannot be read
+     */
+    public static HeavyHitterSketch count(Path filePath, int parallelism, HeavyHitterSketch shape) throws IOException {
+        long start = Metrics.start();
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long[] boundaries = ParallelWordCounter.splitIntoChunks(channel, parallelism);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                HeavyHitterSketch counted = pool.invoke(new ChunkTask(channel, boundaries, 0, boundaries.length - 1, shape));
+                Metrics.recordIngestion(channel.size(), counted.getTotalTokenCount(), start);
+                return counted;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Counts the words read from a channel until the end of the stream,
+     * through one fixed-size buffer, reporting progress as
+     * {@link WordFrequencyIndexer#populateFromChannel(String, ReadableByteChannel, long, LongConsumer)}
+     * does. The channel is not closed.
+     *
+     * @param channel the channel to read from
+     * @param snapshotIntervalMillis the minimum time between two reports
+     * @param snapshotListener the listener to call, or null to disable reports
+     * @return the number of bytes read
+     * @throws IOException if the channel cannot be read
+     */
+    public long populateFromChannel(ReadableByteChannel channel, long snapshotIntervalMillis,
+                                    LongConsumer snapshotListener) throws IOException {
+        long start = Metrics.start();
+        long tokensBefore = getTotalTokenCount();
+        WordTokenizer tokenizer = tokenizer();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        long bytesRead = 0;
+        long nextSnapshot = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+        int read;
+        while ((read = channel.read(buffer)) != -1) {
+            bytesRead += read;
+            buffer.flip();
+            tokenizer.feed(buffer);
+            buffer.clear();
+
+            if (snapshotListener != null && System.nanoTime() - nextSnapshot >= 0) {
+                snapshotListener.accept(bytesRead);
+                nextSnapshot = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+            }
+        }
+        tokenizer.finish();
+        Metrics.recordIngestion(bytesRead, getTotalTokenCount() - tokensBefore, start);
+        return bytesRead;
+    }
+
+    private WordTokenizer tokenizer() {
+        return new WordTokenizer(null) {
+            @Override
+            protected void countWord(byte[] word, int length, int hash) {
+                add(word, length, hash);
+            }
+        };
+    }
+
+    /**
+     * Counts one occurrence of a word.
+     *
+     * @param word the buffer holding the lowercase word
+     * @param length the number of bytes of the word
+     * @param hash the word's {@link String#hashCode()}
+     */
+    public void add(byte[] word, int length, int hash) {
+        long estimate = sketch.add(hash64(word, length), 1);
+        summary.add(word, length, hash, 1, estimate);
+    }
+
+    /**
+     * Merges another sketch of the same shape into this one.
+     *
+     * @throws IllegalArgumentException if the shapes differ
+     */
+    public void merge(HeavyHitterSketch other) {
+        if (other.summary.getCapacity() != summary.getCapacity()) {
+            throw new IllegalArgumentException("Only sketches of the same shape can be merged.");
+        }
+        sketch.merge(other.sketch);
+        summary.merge(other.summary);
+    }
+
+    /**
+     * Returns the most frequent words by estimated count, ties ordered
+     * alphabetically.
+     *
+     * @param n the number of words to return
+     * @return at most N entries, most frequent first
+     */
+    public ApproximateEntry[] getTopFrequencies(int n) {
+        ApproximateEntry[] ranked = rank();
+        return Arrays.copyOf(ranked, Math.min(n, ranked.length));
+    }
+
+    /**
+     * Returns the most any word outside the N most frequent can have occurred.
+     */
+    public long getUnlistedBound(int n) {
+        ApproximateEntry[] ranked = rank();
+        return Math.max(summary.getFloor(), n < ranked.length ? ranked[n].getEstimate() : 0);
+    }
+
+    private ApproximateEntry[] rank() {
+        ApproximateEntry[] entries = new ApproximateEntry[summary.size()];
+        for (int counter = 0; counter < entries.length; counter++) {
+            long estimate = Math.min(summary.countAt(counter),
+                    sketch.estimate(hash64(summary.keyBytesAt(counter), summary.keyLengthAt(counter))));
+            entries[counter] = new ApproximateEntry(summary.keyAt(counter), estimate,
+                    Math.max(0, summary.lowerBoundAt(counter)));
+        }
+        Arrays.sort(entries, Comparator.comparingLong(ApproximateEntry::getEstimate).reversed()
+                .thenComparing(ApproximateEntry::getKey));
+        return entries;
+    }
+
+    /**
+     * Returns the amount by which estimates exceed the true counts with the
+     * probability of {@link #getConfidence()}.
+     */
+    public long getErrorBound() {
+        return sketch.getErrorBound();
+    }
+
+    public double getConfidence() {
+        return sketch.getConfidence();
+    }
+
+    public long getTotalTokenCount() {
+        return sketch.getTotalCount();
+    }
+
+    /**
+     * Returns the approximate memory used by the sketch.
+     */
+    public long getMemoryUsage() {
+        return (long) summary.getCapacity() * SpaceSavingSummary.BYTES_PER_COUNTER
+                + CountMinSketch.memoryUsage(sketch.getWidth(), sketch.getDepth());
+    }
+
+    // FNV-1a followed by a 64-bit finalizer, so both halves of the hash are well mixed
+    private static long hash64(byte[] word, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ word[i]) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static class ChunkTask extends RecursiveTask<HeavyHitterSketch> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final int from;
+        private final int to;
+        private final HeavyHitterSketch shape;
+
+        ChunkTask(FileChannel channel, long[] boundaries, int from, int to, HeavyHitterSketch shape) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+            this.shape = shape;
+        }
+
+        @Override
+        protected HeavyHitterSketch compute() {
+            if (to - from == 1) {
+                return countChunk(boundaries[from], boundaries[to]);
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, boundaries, from, middle, shape);
+            left.fork();
+            HeavyHitterSketch right = new ChunkTask(channel, boundaries, middle, to, shape).compute();
+            HeavyHitterSketch merged = left.join();
+            merged.merge(right);
+            return merged;
+        }
+
+        private HeavyHitterSketch countChunk(long start, long end) {
+            HeavyHitterSketch counted = shape.emptyCopy();
+            if (end <= start) return counted;
+            try {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                WordTokenizer tokenizer = counted.tokenizer();
+                tokenizer.feed(chunk);
+                tokenizer.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return counted;
+        }
+    }
+}
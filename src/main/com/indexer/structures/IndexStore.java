@@ -0,0 +1,474 @@
+package com.indexer.structures;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.indexer.metrics.Metrics;
+import com.indexer.models.DocumentMetadata;
+import com.indexer.utils.TermMatcher;
+import com.indexer.utils.VarInt;
+import com.indexer.utils.WordTokenizer;
+
+/**
+ * Persists the word counts of documents in the {@code index} directory so
+ * that later queries do not have to tokenize them again.
+ *
+ * Each document gets one binary file holding the source file's size,
+ * modification time and CRC32C checksum, the offset of its last word
+ * boundary, its total token count and every distinct word with its count.
+ * Words are stored as a varint length followed by their lowercase ASCII
+ * bytes, and counts as varints.
+ *
+ * When a document has only been appended to, its index is updated by
+ * tokenizing the new tail: the checksum proves the indexed prefix is
+ * unchanged, and the word that was cut off at the old end of the file is
+ * counted again together with the bytes that now follow it.
+ */
+public class IndexStore {
+    static final Path INDEX_DIRECTORY = Paths.get("index");
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final int MAGIC = 0x49445831;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final long LAST_MODIFIED_OFFSET = 16;
+    private static final int MAP_BLOCK_SIZE = 1 << 26;
+    private static final Object CORPUS_LOCK = new Object();
+    private static final Set<String> UPDATED_DOCUMENTS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Tokenizes a document and writes its index, replacing any previous one.
+     *
+     * @param fileName the name of the document inside the docs directory
+     * @param parallelism the number of threads used to tokenize the document
+     * @return the freshly populated indexer
+     * @throws IOException if the document cannot be read or the index cannot be written
+     */
+    public static WordFrequencyIndexer build(String fileName, int parallelism) throws IOException {
+        return build(fileName, parallelism, null);
+    }
+
+    private static WordFrequencyIndexer build(String fileName, int parallelism, Executor readAhead)
+            throws IOException {
+        Path documentPath = Paths.get("docs", fileName);
+        DocumentMetadata described = describe(documentPath, true);
+        WordFrequencyIndexer indexer = new WordFrequencyIndexer();
+        indexer.populateFromFile(fileName, parallelism, readAhead);
+
+        DocumentMetadata metadata;
+        try (FileChannel channel = FileChannel.open(documentPath, StandardOpenOption.READ)) {
+            metadata = new DocumentMetadata(described.getSize(), described.getLastModified(),
+                    described.getChecksum(), wordBoundary(channel, described.getSize()));
+        }
+        write(indexPathFor(fileName), metadata, indexer.getTable());
+        return indexer;
+    }
+
+    /**
+     * Returns an indexer for a document, loading its saved index when it is
+     * still fresh. An index whose document has only grown by appends is
+     * updated with the new tail; any other stale index is rebuilt. Either
+     * way the updated index is rewritten and the document is recorded as
+     * updated: the corpus inverted index is not touched here, since several
+     * documents may be opened at once, and callers bring it up to date with
+     * {@link #refreshCorpusIndex(int)} once they are done. A document without
+     * an index is tokenized without writing one.
+     *
+     * @param fileName the name of the document inside the docs directory
+     * @param parallelism the number of threads used if the document must be tokenized
+     * @return an indexer holding the document's word counts
+     * @throws IOException if the document or its index cannot be read
+     */
+    public static WordFrequencyIndexer open(String fileName, int parallelism) throws IOException {
+        return open(fileName, parallelism, null);
+    }
+
+    /**
+     * Returns an indexer for a document like {@link #open(String, int)}, reading
+     * ahead on the given executor if the document must be tokenized on one thread.
+     *
+     * @param fileName the name of the document inside the docs directory
+     * @param parallelism the number of threads used if the document must be tokenized
+     * @param readAhead the executor used to read ahead, or null to read on the calling thread
+     * @return an indexer holding the document's word counts
+     * @throws IOException if the document or its index cannot be read
+     */
+    public static WordFrequencyIndexer open(String fileName, int parallelism, Executor readAhead)
+            throws IOException {
+        Path indexPath = indexPathFor(fileName);
+        if (!Files.exists(indexPath)) {
+            WordFrequencyIndexer indexer = new WordFrequencyIndexer();
+            indexer.populateFromFile(fileName, parallelism, readAhead);
+            return indexer;
+        }
+
+        WordFrequencyIndexer updated = update(fileName, parallelism, readAhead);
+        if (updated == null) {
+            return new WordFrequencyIndexer(fileName, read(indexPath));
+        }
+        UPDATED_DOCUMENTS.add(fileName);
+        return updated;
+    }
+
+    /**
+     * Rebuilds the corpus inverted index if {@link #open} has updated any of
+     * its documents since the last refresh, so that its document frequencies
+     * match them again. Callers that open documents, possibly on several
+     * threads, call this once afterwards; the rebuild runs under a lock, so
+     * concurrent refreshes rebuild the index once.
+     *
+     * @param parallelism the number of threads used if a document must be tokenized again
+     * @return whether the corpus index was rebuilt
+     * @throws IOException if a document or index cannot be read or written
+     */
+    public static boolean refreshCorpusIndex(int parallelism) throws IOException {
+        synchronized (CORPUS_LOCK) {
+            if (UPDATED_DOCUMENTS.isEmpty()) return false;
+            List<String> updated = new ArrayList<>(UPDATED_DOCUMENTS);
+            UPDATED_DOCUMENTS.removeAll(updated);
+            InvertedIndex corpus = InvertedIndex.load();
+            if (corpus == null || updated.stream().noneMatch(document -> corpus.documentId(document) >= 0)) {
+                return false;
+            }
+            buildCorpusIndex(parallelism, false);
+            return true;
+        }
+    }
+
+    /**
+     * Brings the saved index of a document up to date.
+     *
+     * @return the updated indexer, or null if the saved index was already fresh
+     */
+    private static WordFrequencyIndexer update(String fileName, int parallelism, Executor readAhead)
+            throws IOException {
+        Path documentPath = Paths.get("docs", fileName);
+        Path indexPath = indexPathFor(fileName);
+        DocumentMetadata saved = readMetadata(indexPath);
+        if (saved == null) {
+            return build(fileName, parallelism, readAhead);
+        }
+
+        DocumentMetadata current = describe(documentPath, false);
+        if (current.getSize() == saved.getSize()) {
+            if (current.getLastModified() == saved.getLastModified()) return null;
+            if (checksum(documentPath, current.getSize()) == saved.getChecksum()) {
+                updateLastModified(indexPath, current.getLastModified());
+                return null;
+            }
+        } else if (current.getSize() > saved.getSize()) {
+            WordFrequencyIndexer appended = appendTail(fileName, saved, current);
+            if (appended != null) return appended;
+        }
+        return build(fileName, parallelism, readAhead);
+    }
+
+    /**
+     * Updates an index with the bytes appended to its document.
+     *
+     * @return the updated indexer, or null if the indexed prefix has changed
+     */
+    private static WordFrequencyIndexer appendTail(String fileName, DocumentMetadata saved,
+                                                   DocumentMetadata current) throws IOException {
+        Path indexPath = indexPathFor(fileName);
+        try (FileChannel channel = FileChannel.open(Paths.get("docs", fileName), StandardOpenOption.READ)) {
+            CRC32C crc = new CRC32C();
+            updateChecksum(channel, crc, 0, saved.getSize());
+            if (crc.getValue() != saved.getChecksum()) return null;
+
+            WordCountTable table = read(indexPath);
+            WordCountTable cutWord = new WordCountTable();
+            tokenizeRange(channel, saved.getWordBoundary(), saved.getSize(), cutWord);
+            for (int slot = 0; slot < cutWord.capacity(); slot++) {
+                if (cutWord.isOccupied(slot)) table.increment(cutWord, slot, -cutWord.countAt(slot));
+            }
+            long start = Metrics.start();
+            long tokensBefore = table.getTotalCount();
+            tokenizeRange(channel, saved.getWordBoundary(), current.getSize(), table);
+            Metrics.recordIngestion(current.getSize() - saved.getWordBoundary(),
+                    table.getTotalCount() - tokensBefore, start);
+
+            updateChecksum(channel, crc, saved.getSize(), current.getSize());
+            DocumentMetadata metadata = new DocumentMetadata(current.getSize(), current.getLastModified(),
+                    crc.getValue(), wordBoundary(channel, current.getSize()));
+            write(indexPath, metadata, table);
+            return new WordFrequencyIndexer(fileName, table);
+        }
+    }
+
+    private static void tokenizeRange(FileChannel channel, long start, long end, WordCountTable table)
+            throws IOException {
+        WordTokenizer tokenizer = new WordTokenizer(table);
+        for (long position = start; position < end; position += MAP_BLOCK_SIZE) {
+            long blockSize = Math.min(MAP_BLOCK_SIZE, end - position);
+            tokenizer.feed(channel.map(FileChannel.MapMode.READ_ONLY, position, blockSize));
+        }
+        tokenizer.finish();
+    }
+
+    /**
+     * Returns the offset just past the last non-letter byte before the given size, or 0 if there is none.
+     */
+    private static long wordBoundary(FileChannel channel, long size) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(256);
+        long end = size;
+        while (end > 0) {
+            long start = Math.max(0, end - block.capacity());
+            block.clear().limit((int) (end - start));
+            int read;
+            do {
+                read = channel.read(block, start + block.position());
+            } while (read > 0 && block.hasRemaining());
+            for (int i = block.position() - 1; i >= 0; i--) {
+                int lower = block.get(i) | 0x20;
+                if (lower < 'a' || lower > 'z') return start + i + 1;
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Rebuilds the corpus inverted index from every document that has a
+     * saved index and still exists in the docs directory. Stale document
+     * indexes are refreshed first. The positional index is rebuilt over the
+     * same documents when requested; otherwise it is left as is, and phrase
+     * queries on documents it no longer matches fall back to scanning them.
+     * Only one rebuild runs at a time in a process.
+     *
+     * @param parallelism the number of threads used if a document must be tokenized again
+     * @param withPositions whether to rebuild the positional index as well
+     * @return the number of documents in the corpus index
+     * @throws IOException if a document or index cannot be read or written
+     */
+    public static int buildCorpusIndex(int parallelism, boolean withPositions) throws IOException {
+        synchronized (CORPUS_LOCK) {
+            return writeCorpusIndex(parallelism, withPositions);
+        }
+    }
+
+    private static int writeCorpusIndex(int parallelism, boolean withPositions) throws IOException {
+        String[] fileNames = listIndexedDocuments();
+        WordFrequencyIndexer[] indexers = new WordFrequencyIndexer[fileNames.length];
+        DocumentMetadata[] metadata = new DocumentMetadata[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            WordFrequencyIndexer updated = update(fileNames[i], parallelism, null);
+            indexers[i] = updated != null ? updated
+                    : new WordFrequencyIndexer(fileNames[i], read(indexPathFor(fileNames[i])));
+            metadata[i] = describe(Paths.get("docs", fileNames[i]), false);
+        }
+        InvertedIndex.build(fileNames, indexers, metadata);
+        if (withPositions) {
+            PositionalIndex.build(fileNames, indexers, metadata);
+        }
+        return fileNames.length;
+    }
+
+    private static String[] listIndexedDocuments() throws IOException {
+        if (!Files.isDirectory(INDEX_DIRECTORY)) return new String[0];
+        try (Stream<Path> paths = Files.list(INDEX_DIRECTORY)) {
+            return paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(INDEX_EXTENSION))
+                    .map(name -> name.substring(0, name.length() - INDEX_EXTENSION.length()))
+                    .filter(name -> Files.isRegularFile(Paths.get("docs", name)))
+                    .sorted()
+                    .toArray(String[]::new);
+        }
+    }
+
+    /**
+     * Counts the search terms and the words of a document that has no saved index.
+     *
+     * @param fileName the name of the document inside the docs directory
+     * @param terms the lowercase search terms
+     * @return the matcher holding the counts
+     * @throws IOException if the document cannot be read
+     */
+    public static TermMatcher scan(String fileName, String[] terms) throws IOException {
+        return scan(fileName, terms, false);
+    }
+
+    /**
+     * Counts the search terms and the words of a document, optionally
+     * recording the positions of the terms for phrase queries.
+     *
+     * @param fileName the name of the document inside the docs directory
+     * @param terms the lowercase search terms
+     * @param recordPositions whether the matcher must record term positions
+     * @return the matcher holding the counts
+     * @throws IOException if the document cannot be read
+     */
+    public static TermMatcher scan(String fileName, String[] terms, boolean recordPositions) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get("docs", fileName), StandardOpenOption.READ)) {
+            long start = Metrics.start();
+            TermMatcher matcher = TermMatcher.scan(channel, terms, recordPositions);
+            Metrics.recordIngestion(channel.size(), matcher.getTotalTokenCount(), start);
+            return matcher;
+        }
+    }
+
+    /**
+     * Tells whether a document has a saved index, fresh or not.
+     */
+    public static boolean hasIndex(String fileName) {
+        return Files.exists(indexPathFor(fileName));
+    }
+
+    public static Path indexPathFor(String fileName) {
+        return INDEX_DIRECTORY.resolve(fileName + INDEX_EXTENSION);
+    }
+
+    static DocumentMetadata describe(Path documentPath, boolean withChecksum) throws IOException {
+        long size = Files.size(documentPath);
+        long lastModified = Files.getLastModifiedTime(documentPath).toMillis();
+        long checksum = withChecksum ? checksum(documentPath, size) : 0;
+        return new DocumentMetadata(size, lastModified, checksum);
+    }
+
+    static long checksum(Path documentPath, long length) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(documentPath, StandardOpenOption.READ)) {
+            updateChecksum(channel, crc, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    private static void updateChecksum(FileChannel channel, CRC32C crc, long start, long end) throws IOException {
+        for (long position = start; position < end; position += MAP_BLOCK_SIZE) {
+            long blockSize = Math.min(MAP_BLOCK_SIZE, end - position);
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, blockSize));
+        }
+    }
+
+    static void write(Path indexPath, DocumentMetadata metadata, WordCountTable table) throws IOException {
+        Files.createDirectories(indexPath.getParent());
+        Path temporaryPath = createTemporaryFile(indexPath);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(metadata.getSize());
+                out.writeLong(metadata.getLastModified());
+                out.writeLong(metadata.getChecksum());
+                out.writeLong(metadata.getWordBoundary());
+                out.writeLong(table.getTotalCount());
+                writeCounts(out, table);
+            }
+            Files.move(temporaryPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Creates an empty file next to the given one, with a unique name, so
+     * that concurrent writers of the same file never share a temporary file.
+     * The file is created like any other, with the permissions given by the
+     * umask, so the file it replaces stays readable by the same users.
+     */
+    static Path createTemporaryFile(Path target) throws IOException {
+        while (true) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), Character.MAX_RADIX);
+            Path file = target.resolveSibling(target.getFileName() + "." + suffix + ".tmp");
+            try {
+                Files.newByteChannel(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                return file;
+            } catch (FileAlreadyExistsException e) {
+                // Another writer picked the same name; draw another one
+            }
+        }
+    }
+
+    /**
+     * Writes the number of distinct words followed by every word and its count.
+     */
+    static void writeCounts(DataOutputStream out, WordCountTable table) throws IOException {
+        TermDictionary dictionary = table.getDictionary();
+        out.writeInt(table.size());
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (!table.isOccupied(slot)) continue;
+            int term = table.termAt(slot);
+            VarInt.write(out, dictionary.length(term));
+            dictionary.writeTerm(term, out);
+            VarInt.write(out, table.countAt(slot));
+        }
+    }
+
+    /**
+     * Reads counts written by {@link #writeCounts}, advancing the buffer's position.
+     */
+    static WordCountTable readCounts(ByteBuffer buffer) {
+        int distinctWords = buffer.getInt();
+        WordCountTable table = new WordCountTable(distinctWords);
+        byte[] word = new byte[64];
+        for (int i = 0; i < distinctWords; i++) {
+            int length = (int) VarInt.read(buffer);
+            if (length > word.length) {
+                word = new byte[length];
+            }
+            buffer.get(word, 0, length);
+            int hash = 0;
+            for (int j = 0; j < length; j++) {
+                hash = 31 * hash + word[j];
+            }
+            table.increment(word, length, hash, (int) VarInt.read(buffer));
+        }
+        table.finishResize();
+        return table;
+    }
+
+    private static void updateLastModified(Path indexPath, long lastModified) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(Long.BYTES).putLong(0, lastModified);
+            channel.write(value, LAST_MODIFIED_OFFSET);
+        }
+    }
+
+    static DocumentMetadata readMetadata(Path indexPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            return new DocumentMetadata(header.getLong(), header.getLong(), header.getLong(), header.getLong());
+        }
+    }
+
+    /**
+     * Memory-maps an index file and loads its word counts into a table.
+     *
+     * @param indexPath the index file
+     * @return a table holding the saved counts
+     * @throws IOException if the file cannot be read or is not a valid index
+     */
+    static WordCountTable read(Path indexPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a valid index file: " + indexPath);
+            }
+            buffer.position(HEADER_SIZE + Long.BYTES);
+            return readCounts(buffer);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.indexer.structures;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.indexer.models.DocumentMetadata;
+import com.indexer.utils.VarInt;
+
+/**
+ * Corpus-level inverted index mapping every term to the documents that
+ * contain it.
+ *
+ * The index is written to {@code index/corpus.inv} and memory-mapped when
+ * loaded. Terms are kept in sorted order so a lookup is a binary search over
+ * the term dictionary, and each term's postings list stores the gaps between
+ * ascending document ids and the term frequencies as varints. A query
+ * therefore only reads the dictionary entries and postings of its own terms.
+ *
+ * Postings are grouped in blocks of {@link #BLOCK_SIZE}. For every block the
+ * index records its last document id, where it ends, and the largest term
+ * frequency and smallest document length in it. Cursors use the first two to
+ * skip whole blocks, and ranked retrieval uses the last two to bound the score
+ * any document of the block can reach.
+ */
+public class InvertedIndex {
+    private static final Path CORPUS_INDEX_PATH = IndexStore.INDEX_DIRECTORY.resolve("corpus.inv");
+    private static final int MAGIC = 0x494E5631;
+    private static final int VERSION = 2;
+    static final int BLOCK_SIZE = 64;
+    static final int BLOCK_ENTRY_BYTES = 4 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final String[] documentNames;
+    private final Map<String, Integer> documentIds;
+    private final long[] documentLengths;
+    private final long[] documentSizes;
+    private final long[] documentLastModified;
+    private final int termCount;
+    private final int termOffsetsStart;
+    private final int postingsOffsetsStart;
+    private final int documentFrequenciesStart;
+    private final int blockOffsetsStart;
+    private final int termsStart;
+    private final int blocksStart;
+    private final int postingsStart;
+    private final double averageDocumentLength;
+
+    private InvertedIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a valid corpus index: " + CORPUS_INDEX_PATH);
+        }
+
+        int documentCount = buffer.getInt();
+        long totalLength = 0;
+        documentNames = new String[documentCount];
+        documentIds = new HashMap<>(documentCount * 2);
+        documentLengths = new long[documentCount];
+        documentSizes = new long[documentCount];
+        documentLastModified = new long[documentCount];
+        for (int i = 0; i < documentCount; i++) {
+            byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            documentNames[i] = new String(name, StandardCharsets.UTF_8);
+            documentIds.put(documentNames[i], i);
+            documentLengths[i] = buffer.getLong();
+            documentSizes[i] = buffer.getLong();
+            documentLastModified[i] = buffer.getLong();
+            totalLength += documentLengths[i];
+        }
+        averageDocumentLength = documentCount == 0 ? 0 : (double) totalLength / documentCount;
+
+        termCount = buffer.getInt();
+        termOffsetsStart = buffer.position();
+        postingsOffsetsStart = termOffsetsStart + (termCount + 1) * Integer.BYTES;
+        documentFrequenciesStart = postingsOffsetsStart + (termCount + 1) * Integer.BYTES;
+        blockOffsetsStart = documentFrequenciesStart + termCount * Integer.BYTES;
+        termsStart = blockOffsetsStart + (termCount + 1) * Integer.BYTES;
+        blocksStart = termsStart + buffer.getInt(postingsOffsetsStart - Integer.BYTES);
+        postingsStart = blocksStart + buffer.getInt(termsStart - Integer.BYTES) * BLOCK_ENTRY_BYTES;
+    }
+
+    /**
+     * Memory-maps the corpus index, if one has been built.
+     *
+     * @return the corpus index, or null if none exists or it was written by
+     *         another version and must be rebuilt
+     * @throws IOException if the index cannot be read
+     */
+    public static InvertedIndex load() throws IOException {
+        if (!Files.exists(CORPUS_INDEX_PATH)) return null;
+        try (FileChannel channel = FileChannel.open(CORPUS_INDEX_PATH, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.limit() >= 2 * Integer.BYTES && mapped.getInt(0) == MAGIC
+                    && mapped.getInt(Integer.BYTES) != VERSION) {
+                return null;
+            }
+            return new InvertedIndex(mapped);
+        }
+    }
+
+    /**
+     * Builds the corpus index from per-document word counts and writes it to
+     * {@code index/corpus.inv}. Document ids follow the order of the arguments.
+     *
+     * @param fileNames the document names
+     * @param indexers the word counts of each document
+     * @param metadata the size and modification time of each document
+     * @throws IOException if the index cannot be written
+     */
+    public static void build(String[] fileNames, WordFrequencyIndexer[] indexers,
+                             DocumentMetadata[] metadata) throws IOException {
+        WordCountTable[] tables = new WordCountTable[indexers.length];
+        int[][] sortedSlots = new int[indexers.length][];
+        TermDictionary dictionary = TermDictionary.shared();
+        for (int i = 0; i < indexers.length; i++) {
+            tables[i] = indexers[i].getTable();
+            if (tables[i].getDictionary() != dictionary) {
+                throw new IllegalArgumentException("'" + fileNames[i] + "' does not use the shared term dictionary.");
+            }
+            sortedSlots[i] = tables[i].sortedSlots();
+        }
+
+        ByteArrayOutputStream termOffsets = new ByteArrayOutputStream();
+        ByteArrayOutputStream postingsOffsets = new ByteArrayOutputStream();
+        ByteArrayOutputStream documentFrequencies = new ByteArrayOutputStream();
+        ByteArrayOutputStream blockOffsets = new ByteArrayOutputStream();
+        ByteArrayOutputStream terms = new ByteArrayOutputStream();
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        DataOutputStream termOffsetsOut = new DataOutputStream(termOffsets);
+        DataOutputStream postingsOffsetsOut = new DataOutputStream(postingsOffsets);
+        DataOutputStream documentFrequenciesOut = new DataOutputStream(documentFrequencies);
+        DataOutputStream blockOffsetsOut = new DataOutputStream(blockOffsets);
+        DataOutputStream blocksOut = new DataOutputStream(blocks);
+        DataOutputStream postingsOut = new DataOutputStream(postings);
+        int blockCount = 0;
+
+        // Cursors are {document, position in sortedSlots}; equal words share a dictionary id
+        PriorityQueue<int[]> cursors = new PriorityQueue<>((a, b) -> {
+            int byTerm = dictionary.compare(termAt(tables, sortedSlots, a), termAt(tables, sortedSlots, b));
+            return byTerm != 0 ? byTerm : Integer.compare(a[0], b[0]);
+        });
+        for (int document = 0; document < sortedSlots.length; document++) {
+            if (sortedSlots[document].length > 0) cursors.add(new int[] {document, 0});
+        }
+
+        int termCount = 0;
+        while (!cursors.isEmpty()) {
+            int term = termAt(tables, sortedSlots, cursors.peek());
+            int termPostingsStart = postings.size();
+            termOffsetsOut.writeInt(terms.size());
+            postingsOffsetsOut.writeInt(termPostingsStart);
+            blockOffsetsOut.writeInt(blockCount);
+            dictionary.writeTerm(term, terms);
+
+            int documentFrequency = 0;
+            int previousDocument = -1;
+            int blockMaxFrequency = 0;
+            long blockMinLength = Long.MAX_VALUE;
+            while (!cursors.isEmpty() && termAt(tables, sortedSlots, cursors.peek()) == term) {
+                int[] cursor = cursors.poll();
+                int frequency = tables[cursor[0]].countAt(sortedSlots[cursor[0]][cursor[1]]);
+                VarInt.write(postingsOut, cursor[0] - previousDocument - 1);
+                VarInt.write(postingsOut, frequency);
+                previousDocument = cursor[0];
+                documentFrequency++;
+                blockMaxFrequency = Math.max(blockMaxFrequency, frequency);
+                blockMinLength = Math.min(blockMinLength, indexers[cursor[0]].getTotalTokenCount());
+                if (++cursor[1] < sortedSlots[cursor[0]].length) cursors.add(cursor);
+
+                boolean lastPosting = cursors.isEmpty() || termAt(tables, sortedSlots, cursors.peek()) != term;
+                if (documentFrequency % BLOCK_SIZE == 0 || lastPosting) {
+                    blocksOut.writeInt(previousDocument);
+                    blocksOut.writeInt(postings.size() - termPostingsStart);
+                    blocksOut.writeInt(blockMaxFrequency);
+                    blocksOut.writeInt((int) Math.min(Integer.MAX_VALUE, blockMinLength));
+                    blockCount++;
+                    blockMaxFrequency = 0;
+                    blockMinLength = Long.MAX_VALUE;
+                }
+            }
+            documentFrequenciesOut.writeInt(documentFrequency);
+            termCount++;
+        }
+        termOffsetsOut.writeInt(terms.size());
+        postingsOffsetsOut.writeInt(postings.size());
+        blockOffsetsOut.writeInt(blockCount);
+
+        Files.createDirectories(CORPUS_INDEX_PATH.getParent());
+        Path temporaryPath = IndexStore.createTemporaryFile(CORPUS_INDEX_PATH);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(fileNames.length);
+                for (int i = 0; i < fileNames.length; i++) {
+                    byte[] name = fileNames[i].getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(name.length);
+                    out.write(name);
+                    out.writeLong(indexers[i].getTotalTokenCount());
+                    out.writeLong(metadata[i].getSize());
+                    out.writeLong(metadata[i].getLastModified());
+                }
+                out.writeInt(termCount);
+                termOffsets.writeTo(out);
+                postingsOffsets.writeTo(out);
+                documentFrequencies.writeTo(out);
+                blockOffsets.writeTo(out);
+                terms.writeTo(out);
+                blocks.writeTo(out);
+                postings.writeTo(out);
+            }
+            Files.move(temporaryPath, CORPUS_INDEX_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    private static int termAt(WordCountTable[] tables, int[][] sortedSlots, int[] cursor) {
+        return tables[cursor[0]].termAt(sortedSlots[cursor[0]][cursor[1]]);
+    }
+
+    /**
+     * Returns a cursor over the postings of a term.
+     *
+     * @param term the lowercase term to look up
+     * @return the term's postings, or null if no document contains it
+     */
+    public PostingsCursor postings(String term) {
+        int ordinal = findTerm(term.getBytes(StandardCharsets.ISO_8859_1));
+        if (ordinal < 0) return null;
+        int start = buffer.getInt(postingsOffsetsStart + ordinal * Integer.BYTES);
+        int end = buffer.getInt(postingsOffsetsStart + (ordinal + 1) * Integer.BYTES);
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(postingsStart + end).position(postingsStart + start);
+        int firstBlock = buffer.getInt(blockOffsetsStart + ordinal * Integer.BYTES);
+        int lastBlock = buffer.getInt(blockOffsetsStart + (ordinal + 1) * Integer.BYTES);
+        ByteBuffer blocks = buffer.duplicate();
+        blocks.limit(blocksStart + lastBlock * BLOCK_ENTRY_BYTES).position(blocksStart + firstBlock * BLOCK_ENTRY_BYTES);
+        return new PostingsCursor(slice, blocks.slice(), buffer.getInt(documentFrequenciesStart + ordinal * Integer.BYTES));
+    }
+
+    private int findTerm(byte[] term) {
+        return findTerm(buffer, termOffsetsStart, termsStart, termCount, term);
+    }
+
+    /**
+     * Binary-searches a sorted term dictionary laid out as {@code termCount + 1}
+     * int offsets followed by the concatenated term bytes.
+     *
+     * @return the ordinal of the term, or -1 if it is not present
+     */
+    static int findTerm(ByteBuffer buffer, int termOffsetsStart, int termsStart, int termCount, byte[] term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareTerm(buffer, termOffsetsStart, termsStart, middle, term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static int compareTerm(ByteBuffer buffer, int termOffsetsStart, int termsStart, int ordinal, byte[] term) {
+        int start = termsStart + buffer.getInt(termOffsetsStart + ordinal * Integer.BYTES);
+        int end = termsStart + buffer.getInt(termOffsetsStart + (ordinal + 1) * Integer.BYTES);
+        int length = end - start;
+        for (int i = 0; i < Math.min(length, term.length); i++) {
+            int comparison = Integer.compare(buffer.get(start + i) & 0xFF, term[i] & 0xFF);
+            if (comparison != 0) return comparison;
+        }
+        return Integer.compare(length, term.length);
+    }
+
+    /**
+     * Returns the id of a document, or -1 if the index does not contain it.
+     */
+    public int documentId(String fileName) {
+        return documentIds.getOrDefault(fileName, -1);
+    }
+
+    /**
+     * Checks whether a document is in the index and unchanged since the index
+     * was built, comparing its size and modification time.
+     */
+    public boolean isFresh(String fileName) throws IOException {
+        int id = documentId(fileName);
+        if (id < 0) return false;
+        DocumentMetadata current = IndexStore.describe(Paths.get("docs", fileName), false);
+        return current.getSize() == documentSizes[id] && current.getLastModified() == documentLastModified[id];
+    }
+
+    public int getDocumentCount() {
+        return documentNames.length;
+    }
+
+    public String getDocumentName(int documentId) {
+        return documentNames[documentId];
+    }
+
+    /**
+     * Returns the total number of words in a document.
+     */
+    public long getDocumentLength(int documentId) {
+        return documentLengths[documentId];
+    }
+
+    /**
+     * Returns the average number of words per document.
+     */
+    public double getAverageDocumentLength() {
+        return averageDocumentLength;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+}
@@ -0,0 +1,134 @@
+package com.indexer.structures;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.indexer.utils.WordTokenizer;
+
+/**
+ * Counts the words of a single file on several threads.
+ *
+ * The file is split into chunks whose boundaries are moved forward to the
+ * next non-letter byte, so no word is cut in two. Each chunk is memory-mapped
+ * and tokenized into its own {@link WordCountTable} on a {@link ForkJoinPool},
+ * and the partial tables are merged pairwise as the tasks join.
+ */
+public class ParallelWordCounter {
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 1L << 26;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Counts the words of a file using the given number of threads.
+     *
+     * @param filePath the file to process
+     * @param parallelism the number of worker threads
+     * @return a table holding the counts of every word in the file
+     * @throws IOException if the file cannot be read
+     */
+    public static WordCountTable count(Path filePath, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long[] boundaries = splitIntoChunks(channel, parallelism);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                return pool.invoke(new ChunkTask(channel, boundaries, 0, boundaries.length - 1));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    static long[] splitIntoChunks(FileChannel channel, int parallelism) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE,
+                Math.max(MIN_CHUNK_SIZE, size / ((long) parallelism * CHUNKS_PER_THREAD)));
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long position = 0;
+        while (size - position > chunkSize) {
+            position = nextNonLetter(channel, position + chunkSize, size);
+            if (position >= size) break;
+            boundaries.add(position);
+        }
+        boundaries.add(size);
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static long nextNonLetter(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(256);
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) return size;
+            for (int i = 0; i < read; i++) {
+                int lower = probe.get(i) | 0x20;
+                if (lower < 'a' || lower > 'z') return position + i;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static class ChunkTask extends RecursiveTask<WordCountTable> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] boundaries, int from, int to) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected WordCountTable compute() {
+            if (to - from == 1) {
+                return countChunk(boundaries[from], boundaries[to]);
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, boundaries, from, middle);
+            left.fork();
+            WordCountTable right = new ChunkTask(channel, boundaries, middle, to).compute();
+            return merge(left.join(), right);
+        }
+
+        private WordCountTable countChunk(long start, long end) {
+            WordCountTable table = new WordCountTable(WordCountTable.estimateDistinctWords(end - start));
+            if (end <= start) return table;
+            try {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                WordTokenizer tokenizer = new WordTokenizer(table);
+                tokenizer.feed(chunk);
+                tokenizer.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return table;
+        }
+
+        private static WordCountTable merge(WordCountTable first, WordCountTable second) {
+            if (first.size() < second.size()) {
+                second.mergeFrom(first);
+                return second;
+            }
+            first.mergeFrom(second);
+            return first;
+        }
+    }
+}
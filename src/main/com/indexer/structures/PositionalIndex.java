@@ -0,0 +1,801 @@
+package com.indexer.structures;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+import com.indexer.models.DocumentMetadata;
+import com.indexer.utils.PhraseMatcher;
+import com.indexer.utils.VarInt;
+import com.indexer.utils.WordTokenizer;
+
+/**
+ * Corpus-level positional index mapping every term to the word positions at
+ * which it occurs in each document, for phrase and proximity queries.
+ *
+ * The index is written to {@code index/corpus.pos} next to the corpus
+ * inverted index, with the same sorted term dictionary. Each term's postings
+ * list stores, for every document containing it, the gap from the previous
+ * document id, the number of occurrences, and the gaps between ascending
+ * positions, all as varints. A phrase query intersects the postings of its
+ * terms document by document and only decodes positions in documents that
+ * contain every term, so it reads the postings of its own terms and never
+ * the documents themselves.
+ *
+ * Postings are addressed by long offsets and mapped in blocks, so they may
+ * exceed 2 GB. They are built like {@link SpilledWordCounts}: positions are
+ * buffered in memory, written out as runs sorted by term whenever the buffer
+ * fills up, and the runs are k-way merged into the index at the end, so only
+ * the buffer and one entry per run are held in memory at a time.
+ */
+public class PositionalIndex {
+    private static final Path POSITIONAL_INDEX_PATH = IndexStore.INDEX_DIRECTORY.resolve("corpus.pos");
+    private static final int MAGIC = 0x504F5331;
+    private static final int VERSION = 2;
+    private static final long MAP_BLOCK_SIZE = 1L << 30;
+    private static final int FEED_SIZE = 1 << 16;
+
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] postings;
+    private final String[] documentNames;
+    private final Map<String, Integer> documentIds;
+    private final long[] documentLengths;
+    private final long[] documentSizes;
+    private final long[] documentLastModified;
+    private final int termCount;
+    private final int termOffsetsStart;
+    private final int postingsOffsetsStart;
+    private final int termsStart;
+
+    private PositionalIndex(FileChannel channel) throws IOException {
+        long size = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a valid positional index: " + POSITIONAL_INDEX_PATH);
+        }
+
+        int documentCount = buffer.getInt();
+        documentNames = new String[documentCount];
+        documentIds = new HashMap<>(documentCount * 2);
+        documentLengths = new long[documentCount];
+        documentSizes = new long[documentCount];
+        documentLastModified = new long[documentCount];
+        for (int i = 0; i < documentCount; i++) {
+            byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            documentNames[i] = new String(name, StandardCharsets.UTF_8);
+            documentIds.put(documentNames[i], i);
+            documentLengths[i] = buffer.getLong();
+            documentSizes[i] = buffer.getLong();
+            documentLastModified[i] = buffer.getLong();
+        }
+
+        termCount = buffer.getInt();
+        termOffsetsStart = buffer.position();
+        postingsOffsetsStart = termOffsetsStart + (termCount + 1) * Integer.BYTES;
+        termsStart = postingsOffsetsStart + (termCount + 1) * Long.BYTES;
+        long postingsStart = termsStart + (long) buffer.getInt(postingsOffsetsStart - Integer.BYTES);
+        if (postingsStart > buffer.limit()) {
+            throw new IOException("Not a valid positional index: " + POSITIONAL_INDEX_PATH);
+        }
+        buffer.limit((int) postingsStart);
+
+        postings = new ByteBuffer[(int) ((size - postingsStart + MAP_BLOCK_SIZE - 1) / MAP_BLOCK_SIZE)];
+        for (int i = 0; i < postings.length; i++) {
+            long start = postingsStart + i * MAP_BLOCK_SIZE;
+            postings[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_BLOCK_SIZE, size - start));
+        }
+    }
+
+    /**
+     * Memory-maps the positional index, if one has been built.
+     *
+     * @return the positional index, or null if none exists or it was written
+     *         by another version and must be rebuilt
+     * @throws IOException if the index cannot be read
+     */
+    public static PositionalIndex load() throws IOException {
+        if (!exists()) return null;
+        try (FileChannel channel = FileChannel.open(POSITIONAL_INDEX_PATH, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            channel.read(header, 0);
+            if (!header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(Integer.BYTES) != VERSION) {
+                return null;
+            }
+            return new PositionalIndex(channel);
+        }
+    }
+
+    public static boolean exists() {
+        return Files.exists(POSITIONAL_INDEX_PATH);
+    }
+
+    /**
+     * Builds the positional index and writes it to {@code index/corpus.pos}.
+     * Each document is tokenized once more to record positions, which are
+     * spilled to sorted runs and merged into the index. Document ids follow
+     * the order of the arguments.
+     *
+     * @param fileNames the document names
+     * @param indexers the up-to-date word counts of each document
+     * @param metadata the size and modification time of each document
+     * @throws IOException if a document cannot be read or the index cannot be written
+     */
+    public static void build(String[] fileNames, WordFrequencyIndexer[] indexers,
+                             DocumentMetadata[] metadata) throws IOException {
+        TermDictionary dictionary = TermDictionary.shared();
+        WordCountTable vocabulary = new WordCountTable();
+        for (int i = 0; i < fileNames.length; i++) {
+            WordCountTable table = indexers[i].getTable();
+            if (table.getDictionary() != dictionary) {
+                throw new IllegalArgumentException("'" + fileNames[i] + "' does not use the shared term dictionary.");
+            }
+            // Counting documents rather than occurrences keeps common words from overflowing
+            for (int slot = 0; slot < table.capacity(); slot++) {
+                if (table.isOccupied(slot)) vocabulary.increment(table, slot, 1);
+            }
+        }
+        vocabulary.finishResize();
+
+        // Runs refer to terms by their rank in sorted order, which is also their ordinal in the index
+        int[] sortedSlots = vocabulary.sortedSlots();
+        int[] ranks = new int[dictionary.size()];
+        for (int rank = 0; rank < sortedSlots.length; rank++) {
+            ranks[vocabulary.termAt(sortedSlots[rank])] = rank;
+        }
+
+        try (PositionRuns runs = new PositionRuns()) {
+            for (int i = 0; i < fileNames.length; i++) {
+                collect(fileNames[i], i, indexers[i].getTable(), ranks, runs);
+            }
+            runs.spill();
+            runs.reduce();
+
+            Files.createDirectories(POSITIONAL_INDEX_PATH.getParent());
+            Path temporaryPath = IndexStore.createTemporaryFile(POSITIONAL_INDEX_PATH);
+            try {
+                long[] postingsOffsets = new long[sortedSlots.length + 1];
+                long postingsOffsetsStart;
+                try (CountingOutputStream counted = new CountingOutputStream(Files.newOutputStream(temporaryPath));
+                     DataOutputStream out = new DataOutputStream(counted)) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(fileNames.length);
+                    for (int i = 0; i < fileNames.length; i++) {
+                        byte[] name = fileNames[i].getBytes(StandardCharsets.UTF_8);
+                        out.writeShort(name.length);
+                        out.write(name);
+                        out.writeLong(indexers[i].getTotalTokenCount());
+                        out.writeLong(metadata[i].getSize());
+                        out.writeLong(metadata[i].getLastModified());
+                    }
+                    out.writeInt(sortedSlots.length);
+                    int termOffset = 0;
+                    for (int slot : sortedSlots) {
+                        out.writeInt(termOffset);
+                        termOffset += dictionary.length(vocabulary.termAt(slot));
+                    }
+                    out.writeInt(termOffset);
+
+                    // The postings offsets are only known once the runs are merged, so they are patched below
+                    postingsOffsetsStart = counted.count;
+                    out.write(new byte[postingsOffsets.length * Long.BYTES]);
+                    for (int slot : sortedSlots) {
+                        dictionary.writeTerm(vocabulary.termAt(slot), out);
+                    }
+                    long postingsStart = counted.count;
+                    runs.mergeInto(out, () -> counted.count - postingsStart, postingsOffsets);
+                }
+
+                ByteBuffer offsets = ByteBuffer.allocate(postingsOffsets.length * Long.BYTES);
+                offsets.asLongBuffer().put(postingsOffsets);
+                try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+                    long position = postingsOffsetsStart;
+                    while (offsets.hasRemaining()) {
+                        position += channel.write(offsets, position);
+                    }
+                }
+                Files.move(temporaryPath, POSITIONAL_INDEX_PATH, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporaryPath);
+            }
+        }
+    }
+
+    /**
+     * Tokenizes a document whose words are all in the given table and adds
+     * the position of every word to the runs.
+     */
+    private static void collect(String fileName, int document, WordCountTable table, int[] ranks,
+                                PositionRuns runs) throws IOException {
+        PositionRecorder recorder = new PositionRecorder(table, ranks, document, runs);
+        try (FileChannel channel = FileChannel.open(Paths.get("docs", fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_BLOCK_SIZE) {
+                ByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_BLOCK_SIZE, size - position));
+                // A slice adds fewer words than FEED_SIZE, so the buffer is spilled between slices
+                for (int start = 0; start < block.capacity(); start += FEED_SIZE) {
+                    if (runs.remaining() < FEED_SIZE) runs.spill();
+                    block.limit(Math.min(start + FEED_SIZE, block.capacity())).position(start);
+                    recorder.feed(block);
+                }
+            }
+        }
+        if (runs.remaining() < FEED_SIZE) runs.spill();
+        recorder.finish();
+        if (recorder.mismatched || recorder.position != table.getTotalCount()) {
+            throw new IOException("'" + fileName + "' changed while its positions were being indexed.");
+        }
+    }
+
+    /**
+     * Counts the occurrences of a phrase in every document of the index.
+     *
+     * @param terms the lowercase phrase terms, in order
+     * @param slop the maximum number of other words between two consecutive terms; 0 for an exact phrase
+     * @return the number of occurrences, indexed by document id
+     */
+    public int[] countPhrase(String[] terms, int slop) {
+        int[] counts = new int[documentNames.length];
+        PositionsCursor[] cursors = new PositionsCursor[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            cursors[t] = positions(terms[t]);
+            if (cursors[t] == null || !cursors[t].nextDocument()) return counts;
+        }
+
+        int[][] positions = new int[terms.length][];
+        while (true) {
+            int target = cursors[0].documentId;
+            boolean aligned = true;
+            for (PositionsCursor cursor : cursors) {
+                target = Math.max(target, cursor.documentId);
+            }
+            for (PositionsCursor cursor : cursors) {
+                while (cursor.documentId < target) {
+                    if (!cursor.nextDocument()) return counts;
+                }
+                if (cursor.documentId != target) aligned = false;
+            }
+            if (!aligned) continue;
+
+            for (int t = 0; t < terms.length; t++) {
+                positions[t] = cursors[t].readPositions();
+            }
+            counts[target] = PhraseMatcher.countMatches(positions, slop);
+            for (PositionsCursor cursor : cursors) {
+                if (!cursor.nextDocument()) return counts;
+            }
+        }
+    }
+
+    private PositionsCursor positions(String term) {
+        int ordinal = InvertedIndex.findTerm(buffer, termOffsetsStart, termsStart, termCount,
+                term.getBytes(StandardCharsets.ISO_8859_1));
+        if (ordinal < 0) return null;
+        long start = buffer.getLong(postingsOffsetsStart + ordinal * Long.BYTES);
+        long end = buffer.getLong(postingsOffsetsStart + (ordinal + 1) * Long.BYTES);
+        return new PositionsCursor(postings, start, end);
+    }
+
+    /**
+     * Returns the id of a document, or -1 if the index does not contain it.
+     */
+    public int documentId(String fileName) {
+        return documentIds.getOrDefault(fileName, -1);
+    }
+
+    /**
+     * Checks whether a document is in the index and unchanged since the index
+     * was built, comparing its size and modification time.
+     */
+    public boolean isFresh(String fileName) throws IOException {
+        int id = documentId(fileName);
+        if (id < 0) return false;
+        DocumentMetadata current = IndexStore.describe(Paths.get("docs", fileName), false);
+        return current.getSize() == documentSizes[id] && current.getLastModified() == documentLastModified[id];
+    }
+
+    public int getDocumentCount() {
+        return documentNames.length;
+    }
+
+    /**
+     * Returns the total number of words in a document.
+     */
+    public long getDocumentLength(int documentId) {
+        return documentLengths[documentId];
+    }
+
+    /**
+     * Iterates over the documents of one term's postings. The positions of
+     * the current document are skipped unless they are read. The postings
+     * may cross from one mapped block into the next.
+     */
+    private static class PositionsCursor {
+        private final ByteBuffer[] blocks;
+        private final long end;
+        private long position;
+        private ByteBuffer block;
+        private int documentId = -1;
+        private int frequency;
+        private boolean positionsRead = true;
+
+        PositionsCursor(ByteBuffer[] blocks, long start, long end) {
+            this.blocks = blocks;
+            this.position = start;
+            this.end = end;
+        }
+
+        boolean nextDocument() {
+            if (!positionsRead) {
+                for (int i = 0; i < frequency; i++) {
+                    readVarInt();
+                }
+            }
+            if (position >= end) return false;
+            documentId += (int) readVarInt() + 1;
+            frequency = (int) readVarInt();
+            positionsRead = false;
+            return true;
+        }
+
+        int[] readPositions() {
+            int[] positions = new int[frequency];
+            int position = 0;
+            for (int i = 0; i < frequency; i++) {
+                position += (int) readVarInt();
+                positions[i] = position;
+            }
+            positionsRead = true;
+            return positions;
+        }
+
+        /**
+         * Reads a varint like {@link VarInt#read(ByteBuffer)}, moving to the
+         * next block when the current one is exhausted.
+         */
+        private long readVarInt() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (block == null || !block.hasRemaining()) {
+                    block = blocks[(int) (position / MAP_BLOCK_SIZE)].duplicate();
+                    block.position((int) (position % MAP_BLOCK_SIZE));
+                }
+                b = block.get();
+                position++;
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Positions of every document, as (term rank, document, position) entries
+     * appended in document and position order.
+     *
+     * Entries are buffered and written out as a run sorted by term rank when
+     * the buffer is full. A run holds, for each of its terms, the rank, then
+     * one entry per document with the gap from the previous document, the
+     * number of positions and the gaps between them, then a 0. Since runs are
+     * written in order, merging them only has to concatenate the positions of
+     * a term in run order; a document whose positions were split between runs
+     * is joined back into a single entry.
+     */
+    private static class PositionRuns implements Closeable {
+        private static final int BUFFER_ENTRIES = 1 << 21;
+        private static final int STREAM_BUFFER_SIZE = 1 << 16;
+        private static final int MAXIMUM_FAN_IN = 64;
+
+        private static final int DIGIT_BITS = 16;
+
+        private final int[] ranks = new int[BUFFER_ENTRIES];
+        private final int[] documents = new int[BUFFER_ENTRIES];
+        private final int[] positions = new int[BUFFER_ENTRIES];
+        private final int[] order = new int[BUFFER_ENTRIES];
+        private final int[] sorted = new int[BUFFER_ENTRIES];
+        private final int[] digitStarts = new int[(1 << DIGIT_BITS) + 1];
+        private final List<Path> runs = new ArrayList<>();
+        private int size;
+
+        void add(int rank, int document, int position) {
+            ranks[size] = rank;
+            documents[size] = document;
+            positions[size] = position;
+            size++;
+        }
+
+        int remaining() {
+            return BUFFER_ENTRIES - size;
+        }
+
+        /**
+         * Writes the buffered entries as a new run and empties the buffer.
+         */
+        void spill() throws IOException {
+            if (size == 0) return;
+            int[] byRank = sortByRank();
+            int groups = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || ranks[byRank[i]] != ranks[byRank[i - 1]]) groups++;
+            }
+
+            Path run = createTemporaryFile();
+            runs.add(run);
+            try (DataOutputStream out = openOutput(run)) {
+                out.writeInt(groups);
+                int i = 0;
+                while (i < size) {
+                    int rank = ranks[byRank[i]];
+                    VarInt.write(out, rank);
+                    int previousDocument = -1;
+                    while (i < size && ranks[byRank[i]] == rank) {
+                        int document = documents[byRank[i]];
+                        int end = i;
+                        while (end < size && ranks[byRank[end]] == rank && documents[byRank[end]] == document) {
+                            end++;
+                        }
+                        VarInt.write(out, document - previousDocument);
+                        VarInt.write(out, end - i);
+                        int previous = 0;
+                        for (; i < end; i++) {
+                            int position = positions[byRank[i]];
+                            VarInt.write(out, position - previous);
+                            previous = position;
+                        }
+                        previousDocument = document;
+                    }
+                    VarInt.write(out, 0);
+                }
+            }
+            size = 0;
+        }
+
+        /**
+         * Orders the buffered entries by rank with a two-pass radix sort. The
+         * sort is stable, so entries of the same rank stay in document and
+         * position order.
+         *
+         * @return the indexes of the entries in sorted order
+         */
+        private int[] sortByRank() {
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            distribute(order, sorted, 0);
+            distribute(sorted, order, DIGIT_BITS);
+            return order;
+        }
+
+        /**
+         * Moves entry indexes to the output in the order of one digit of their rank.
+         */
+        private void distribute(int[] input, int[] output, int shift) {
+            int mask = (1 << DIGIT_BITS) - 1;
+            Arrays.fill(digitStarts, 0);
+            for (int i = 0; i < size; i++) {
+                digitStarts[(ranks[input[i]] >>> shift & mask) + 1]++;
+            }
+            for (int digit = 0; digit < mask + 1; digit++) {
+                digitStarts[digit + 1] += digitStarts[digit];
+            }
+            for (int i = 0; i < size; i++) {
+                output[digitStarts[ranks[input[i]] >>> shift & mask]++] = input[i];
+            }
+        }
+
+        /**
+         * Merges the oldest runs until few enough are left to be merged at once.
+         * The merged run replaces them at the front, keeping the runs in order.
+         */
+        void reduce() throws IOException {
+            while (runs.size() > MAXIMUM_FAN_IN) {
+                List<Path> oldest = runs.subList(0, MAXIMUM_FAN_IN);
+                Path output = createTemporaryFile();
+                try {
+                    int groups;
+                    try (DataOutputStream out = openOutput(output)) {
+                        out.writeInt(0); // patched with the number of merged terms below
+                        groups = mergeRuns(oldest, out, null, null);
+                    }
+                    try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                        channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, groups), 0);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(output);
+                    throw e;
+                }
+                for (Path run : oldest) {
+                    Files.deleteIfExists(run);
+                }
+                oldest.clear();
+                runs.add(0, output);
+            }
+        }
+
+        /**
+         * Merges every run into postings lists written to the output.
+         *
+         * @param position returns the number of postings bytes written so far
+         * @param postingsOffsets receives the start of each rank's postings, and their end
+         */
+        void mergeInto(DataOutputStream out, LongSupplier position, long[] postingsOffsets) throws IOException {
+            mergeRuns(runs, out, position, postingsOffsets);
+        }
+
+        /**
+         * Merges runs into another run, or into postings lists if offsets are given.
+         *
+         * @return the number of terms written
+         */
+        private static int mergeRuns(List<Path> inputs, DataOutputStream out, LongSupplier position,
+                                     long[] postingsOffsets) throws IOException {
+            boolean postings = postingsOffsets != null;
+            List<RunReader> readers = new ArrayList<>();
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                    Comparator.comparingInt((RunReader r) -> r.rank).thenComparingInt(r -> r.order));
+            try {
+                for (Path run : inputs) {
+                    RunReader reader = new RunReader(run, readers.size());
+                    readers.add(reader);
+                    if (reader.nextTerm()) queue.add(reader);
+                }
+
+                int written = 0;
+                int nextOffset = 0;
+                List<RunReader> term = new ArrayList<>();
+                while (!queue.isEmpty()) {
+                    int rank = queue.peek().rank;
+                    while (!queue.isEmpty() && queue.peek().rank == rank) {
+                        term.add(queue.poll());
+                    }
+                    if (postings) {
+                        while (nextOffset <= rank) postingsOffsets[nextOffset++] = position.getAsLong();
+                    } else {
+                        VarInt.write(out, rank);
+                    }
+
+                    int previousDocument = -1;
+                    while (!term.isEmpty()) {
+                        // Runs hold ascending documents, so the runs sharing the next document come first
+                        int document = term.get(0).document;
+                        int sharing = 0;
+                        int count = 0;
+                        while (sharing < term.size() && term.get(sharing).document == document) {
+                            count += term.get(sharing++).count;
+                        }
+                        VarInt.write(out, document - previousDocument - (postings ? 1 : 0));
+                        VarInt.write(out, count);
+                        int previous = 0;
+                        for (int i = 0; i < sharing; i++) {
+                            RunReader reader = term.get(i);
+                            int current = 0;
+                            for (int c = 0; c < reader.count; c++) {
+                                current += reader.readGap();
+                                VarInt.write(out, current - previous);
+                                previous = current;
+                            }
+                        }
+                        previousDocument = document;
+
+                        for (int i = sharing - 1; i >= 0; i--) {
+                            RunReader reader = term.get(i);
+                            if (!reader.nextDocument()) {
+                                term.remove(i);
+                                if (reader.nextTerm()) queue.add(reader);
+                            }
+                        }
+                    }
+                    if (!postings) VarInt.write(out, 0);
+                    written++;
+                }
+                if (postings) {
+                    while (nextOffset < postingsOffsets.length) postingsOffsets[nextOffset++] = position.getAsLong();
+                }
+                return written;
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+            }
+        }
+
+        /**
+         * Deletes the runs.
+         */
+        @Override
+        public void close() throws IOException {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+        }
+
+        private static Path createTemporaryFile() throws IOException {
+            Path file = Files.createTempFile("indexer-", ".run");
+            file.toFile().deleteOnExit();
+            return file;
+        }
+
+        private static DataOutputStream openOutput(Path file) throws IOException {
+            return new DataOutputStream(new CountingOutputStream(Files.newOutputStream(file)));
+        }
+    }
+
+    /**
+     * Reads the terms of a run in order, and the documents and positions of each term.
+     */
+    private static class RunReader implements Closeable {
+        private static final int MAXIMUM_VARINT_BYTES = 10;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(PositionRuns.STREAM_BUFFER_SIZE);
+        private final int order;
+        private int remaining;
+        int rank;
+        int document;
+        int count;
+
+        RunReader(Path run, int order) throws IOException {
+            this.channel = FileChannel.open(run, StandardOpenOption.READ);
+            this.order = order;
+            buffer.limit(0);
+            fill();
+            this.remaining = buffer.getInt();
+        }
+
+        /**
+         * Moves to the first document of the next term.
+         */
+        boolean nextTerm() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            rank = (int) readVarInt();
+            document = -1;
+            return nextDocument();
+        }
+
+        /**
+         * Moves to the next document of the current term, once every position
+         * of the current one has been read.
+         */
+        boolean nextDocument() throws IOException {
+            int gap = (int) readVarInt();
+            if (gap == 0) return false;
+            document += gap;
+            count = (int) readVarInt();
+            return true;
+        }
+
+        int readGap() throws IOException {
+            return (int) readVarInt();
+        }
+
+        private long readVarInt() throws IOException {
+            if (buffer.remaining() < MAXIMUM_VARINT_BYTES) fill();
+            return VarInt.read(buffer);
+        }
+
+        /**
+         * Refills the buffer, keeping the bytes not read yet.
+         */
+        private void fill() throws IOException {
+            buffer.compact();
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // Read until the buffer is full or the run ends
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Buffers the bytes written through it and counts them, past the 2 GB at
+     * which {@link DataOutputStream#size()} stops. Unlike
+     * {@code BufferedOutputStream}, it takes no lock for every varint byte.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final byte[] buffer = new byte[PositionRuns.STREAM_BUFFER_SIZE];
+        private int buffered;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffered == buffer.length) flushBuffer();
+            buffer[buffered++] = (byte) b;
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.length - buffered) {
+                flushBuffer();
+                if (len > buffer.length) {
+                    out.write(b, off, len);
+                    count += len;
+                    return;
+                }
+            }
+            System.arraycopy(b, off, buffer, buffered, len);
+            buffered += len;
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(buffer, 0, buffered);
+            buffered = 0;
+        }
+    }
+
+    /**
+     * Tokenizes a document into position entries of its words. A word that
+     * is missing from the table or occurs more often than counted means the
+     * document has changed since it was counted.
+     */
+    private static class PositionRecorder extends WordTokenizer {
+        private final WordCountTable table;
+        private final int[] ranks;
+        private final int document;
+        private final PositionRuns runs;
+        private final int[] seen;
+        private int position;
+        private boolean mismatched;
+
+        PositionRecorder(WordCountTable table, int[] ranks, int document, PositionRuns runs) {
+            super(table);
+            this.table = table;
+            this.ranks = ranks;
+            this.document = document;
+            this.runs = runs;
+            this.seen = new int[table.capacity()];
+        }
+
+        @Override
+        protected void countWord(byte[] word, int length, int hash) {
+            int slot = table.slotOf(word, length, hash);
+            if (slot < 0 || seen[slot] == table.countAt(slot)) {
+                mismatched = true;
+            } else {
+                seen[slot]++;
+                runs.add(ranks[table.termAt(slot)], document, position);
+            }
+            position++;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.indexer.structures;
+
+import java.nio.ByteBuffer;
+
+import com.indexer.utils.VarInt;
+
+/**
+ * Iterates over the postings of one term in an {@link InvertedIndex}, in
+ * ascending document id order.
+ *
+ * Besides reading postings one by one, a cursor can skip to a target document
+ * using the block table of the index, decoding only the block that may hold
+ * the target, and can find the block of a target without moving, so that
+ * ranked retrieval can read that block's bounds.
+ */
+public class PostingsCursor {
+    public static final int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+
+    private final ByteBuffer postings;
+    private final int postingsStart;
+    private final ByteBuffer blocks;
+    private final int blockCount;
+    private final int documentFrequency;
+    private int documentId = -1;
+    private int termFrequency;
+    private int read;
+    private int shallowBlock;
+
+    PostingsCursor(ByteBuffer postings, ByteBuffer blocks, int documentFrequency) {
+        this.postings = postings;
+        this.postingsStart = postings.position();
+        this.blocks = blocks;
+        this.blockCount = blocks.limit() / InvertedIndex.BLOCK_ENTRY_BYTES;
+        this.documentFrequency = documentFrequency;
+    }
+
+    /**
+     * Advances to the next posting.
+     *
+     * @return false once every posting has been read, after which the
+     *         document id is {@link #NO_MORE_DOCUMENTS}
+     */
+    public boolean next() {
+        if (!postings.hasRemaining()) {
+            documentId = NO_MORE_DOCUMENTS;
+            return false;
+        }
+        documentId += (int) VarInt.read(postings) + 1;
+        termFrequency = (int) VarInt.read(postings);
+        read++;
+        return true;
+    }
+
+    /**
+     * Advances to the first posting whose document id is at least the target,
+     * jumping over every block that ends before it. Does not move if the
+     * current posting already qualifies.
+     *
+     * @return false if no such posting exists
+     */
+    public boolean advance(int target) {
+        if (documentId >= target) return documentId != NO_MORE_DOCUMENTS;
+        int block = read / InvertedIndex.BLOCK_SIZE;
+        int skipped = block;
+        while (block < blockCount && blockLastDocument(block) < target) {
+            block++;
+        }
+        if (block == blockCount) {
+            postings.position(postings.limit());
+            documentId = NO_MORE_DOCUMENTS;
+            return false;
+        }
+        if (block > skipped) {
+            postings.position(postingsStart + blockEnd(block - 1));
+            documentId = blockLastDocument(block - 1);
+            read = block * InvertedIndex.BLOCK_SIZE;
+        }
+        while (documentId < target) {
+            next();
+        }
+        return true;
+    }
+
+    /**
+     * Finds the block that would hold the target document, without reading
+     * any posting. The block is then returned by {@link #getShallowBlock()}.
+     *
+     * @return the last document id of that block, or {@link #NO_MORE_DOCUMENTS}
+     *         if every posting comes before the target
+     */
+    int shallowAdvance(int target) {
+        shallowBlock = Math.max(shallowBlock, read == 0 ? 0 : (read - 1) / InvertedIndex.BLOCK_SIZE);
+        while (shallowBlock < blockCount && blockLastDocument(shallowBlock) < target) {
+            shallowBlock++;
+        }
+        return shallowBlock < blockCount ? blockLastDocument(shallowBlock) : NO_MORE_DOCUMENTS;
+    }
+
+    int getShallowBlock() {
+        return shallowBlock;
+    }
+
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    int blockLastDocument(int block) {
+        return blocks.getInt(block * InvertedIndex.BLOCK_ENTRY_BYTES);
+    }
+
+    private int blockEnd(int block) {
+        return blocks.getInt(block * InvertedIndex.BLOCK_ENTRY_BYTES + Integer.BYTES);
+    }
+
+    int blockMaxTermFrequency(int block) {
+        return blocks.getInt(block * InvertedIndex.BLOCK_ENTRY_BYTES + 2 * Integer.BYTES);
+    }
+
+    int blockMinDocumentLength(int block) {
+        return blocks.getInt(block * InvertedIndex.BLOCK_ENTRY_BYTES + 3 * Integer.BYTES);
+    }
+
+    public int getDocumentId() {
+        return documentId;
+    }
+
+    public int getTermFrequency() {
+        return termFrequency;
+    }
+
+    /**
+     * Returns the number of documents that contain the term.
+     */
+    public int getDocumentFrequency() {
+        return documentFrequency;
+    }
+}
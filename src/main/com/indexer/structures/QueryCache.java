@@ -0,0 +1,228 @@
+package com.indexer.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of query responses.
+ *
+ * A key names the operation, its normalized parameters and the documents it
+ * reads. Keys built with {@link #versionedKey} also include the size and
+ * modification time of each document, so a query against a document that has
+ * changed misses the cache and the stale entry ages out. The cache holds at
+ * most a fixed number of entries, counts hits, misses and evictions, and can
+ * be saved to the {@code index} directory to be reused by later runs.
+ */
+public class QueryCache {
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private static final Path CACHE_PATH = IndexStore.INDEX_DIRECTORY.resolve("query-cache.bin");
+    private static final int MAGIC = 0x51435331;
+    private static final int VERSION = 1;
+
+    private final int maximumSize;
+    private final LinkedHashMap<String, String> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Computes a response on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Computation {
+        String compute() throws IOException;
+    }
+
+    public QueryCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The cache size must be positive.");
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() <= QueryCache.this.maximumSize) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached response for a key, computing and caching it on a
+     * miss. Failed computations are not cached. The computation runs outside
+     * the cache's lock, so two threads missing the same key may both compute it.
+     *
+     * @param key the query key
+     * @param computation computes the response if it is not cached
+     * @return the response
+     * @throws IOException if the computation fails
+     */
+    public String get(String key, Computation computation) throws IOException {
+        synchronized (this) {
+            String cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        String response = computation.compute();
+        synchronized (this) {
+            entries.put(key, response);
+        }
+        return response;
+    }
+
+    /**
+     * Builds a key from the operation, its parameters and the names of the
+     * documents it reads. Suitable when the documents cannot change during the
+     * cache's lifetime, as with documents loaded once into memory.
+     *
+     * @param operation the command, e.g. {@code --search}
+     * @param parameters the normalized parameters of the command
+     * @param documents the documents read by the query, in a canonical order
+     * @return the key
+     */
+    public static String key(String operation, String parameters, String... documents) {
+        StringBuilder key = new StringBuilder(operation).append('\n').append(parameters);
+        for (String document : documents) {
+            key.append('\n').append(document);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Builds a key like {@link #key}, adding the current size and modification
+     * time of every document in the docs directory.
+     *
+     * @param operation the command, e.g. {@code --search}
+     * @param parameters the normalized parameters of the command
+     * @param documents the documents read by the query, in a canonical order
+     * @return the key
+     * @throws IOException if a document does not exist or cannot be described
+     */
+    public static String versionedKey(String operation, String parameters, String... documents) throws IOException {
+        String[] versioned = new String[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get("docs", documents[i]),
+                    BasicFileAttributes.class);
+            versioned[i] = documents[i] + '\t' + attributes.size() + '\t' + attributes.lastModifiedTime().toMillis();
+        }
+        return key(operation, parameters, versioned);
+    }
+
+    /**
+     * Returns search terms in a canonical order. The score of a document is the
+     * average over the terms, so their order does not change the ranking.
+     */
+    public static String normalizeTerms(String[] terms) {
+        String[] sorted = terms.clone();
+        Arrays.sort(sorted);
+        return String.join(" ", sorted);
+    }
+
+    /**
+     * Returns the distinct documents in sorted order.
+     */
+    public static String[] normalizeDocuments(String[] documents) {
+        return Arrays.stream(documents).distinct().sorted().toArray(String[]::new);
+    }
+
+    /**
+     * Loads the cache saved by a previous run, or returns an empty cache if
+     * none exists or it was written by another version.
+     *
+     * @param maximumSize the maximum number of entries
+     * @return the loaded cache
+     * @throws IOException if the saved cache cannot be read
+     */
+    public static QueryCache load(int maximumSize) throws IOException {
+        QueryCache cache = new QueryCache(maximumSize);
+        if (!Files.exists(CACHE_PATH)) return cache;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(CACHE_PATH)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return cache;
+            cache.hits = in.readLong();
+            cache.misses = in.readLong();
+            cache.evictions = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                cache.entries.put(key, readString(in));
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Writes the cache, least recently used entry first, replacing any saved cache.
+     *
+     * @throws IOException if the cache cannot be written
+     */
+    public synchronized void save() throws IOException {
+        Files.createDirectories(CACHE_PATH.getParent());
+        Path temporaryPath = IndexStore.createTemporaryFile(CACHE_PATH);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(hits);
+                out.writeLong(misses);
+                out.writeLong(evictions);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+            }
+            Files.move(temporaryPath, CACHE_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,465 @@
+package com.indexer.structures;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import com.indexer.metrics.Metrics;
+import com.indexer.models.SearchResult;
+import com.indexer.utils.BM25Calculator;
+import com.indexer.utils.PhraseMatcher;
+import com.indexer.utils.TFIDFCalculator;
+import com.indexer.utils.TermMatcher;
+
+/**
+ * Ranks documents by their TF-IDF relevance to a set of search terms.
+ *
+ * Ranking runs in two passes. The statistics pass gathers the length of every
+ * document, the number of documents containing each term and the occurrences
+ * of the search terms, either from the corpus inverted index or by opening
+ * each document. The scoring pass then scores every document against those
+ * fixed statistics, so the ranking does not depend on the order in which the
+ * files were given.
+ */
+public class SearchEngine {
+
+    /**
+     * Ranks the given documents by relevance to the search terms.
+     *
+     * @param terms the lowercase search terms
+     * @param files the documents to rank; duplicates are ranked once
+     * @param parallelism the number of threads used to gather statistics, and the
+     *                    maximum number of documents held in memory at once
+     * @return one result per document, most relevant first, ties ordered by file name
+     * @throws IOException if a document or index cannot be read
+     */
+    public static SearchResult[] search(String[] terms, String[] files, int parallelism) throws IOException {
+        String[] documents = Arrays.stream(files).distinct().sorted().toArray(String[]::new);
+
+        InvertedIndex corpus = InvertedIndex.load();
+        QueryStatistics statistics = corpus != null && isIndexedAndFresh(corpus, documents)
+                ? gatherFromInvertedIndex(corpus, terms, documents)
+                : gatherFromDocuments(terms, documents, parallelism);
+
+        long start = Metrics.start();
+        SearchResult[] results = new SearchResult[documents.length];
+        for (int d = 0; d < documents.length; d++) {
+            results[d] = new SearchResult(documents[d], score(statistics, d));
+        }
+        Metrics.recordScoring(start);
+        return rank(results);
+    }
+
+    /**
+     * Ranks the given documents by relevance to a phrase. The phrase is scored
+     * as a single term: its frequency in a document is the number of places
+     * where the phrase starts, and its document frequency the number of
+     * documents where it occurs at least once.
+     *
+     * Occurrences are counted from the positional index when it covers every
+     * document and all of them are unchanged; otherwise each document is
+     * scanned for the positions of the phrase terms.
+     *
+     * @param terms the lowercase phrase terms, in order
+     * @param files the documents to rank; duplicates are ranked once
+     * @param slop the maximum number of other words between two consecutive terms; 0 for an exact phrase
+     * @param parallelism the number of documents scanned at once when the positional index cannot be used
+     * @return one result per document, most relevant first, ties ordered by file name
+     * @throws IOException if a document or index cannot be read
+     */
+    public static SearchResult[] searchPhrase(String[] terms, String[] files, int slop, int parallelism)
+            throws IOException {
+        String[] documents = Arrays.stream(files).distinct().sorted().toArray(String[]::new);
+
+        PositionalIndex positions = PositionalIndex.load();
+        QueryStatistics statistics = positions != null && isIndexedAndFresh(positions, documents)
+                ? gatherPhraseFromPositionalIndex(positions, terms, documents, slop)
+                : gatherPhraseFromDocuments(terms, documents, slop, parallelism);
+
+        long start = Metrics.start();
+        SearchResult[] results = new SearchResult[documents.length];
+        for (int d = 0; d < documents.length; d++) {
+            results[d] = new SearchResult(documents[d], score(statistics, d));
+        }
+        Metrics.recordScoring(start);
+        return rank(results);
+    }
+
+    /**
+     * Returns the K documents with the highest BM25 score for the search terms.
+     *
+     * Without files the whole corpus index is searched with
+     * {@link TopKRetriever}, skipping documents that cannot reach the top K.
+     * Otherwise the given documents form the collection: their statistics are
+     * gathered as for {@link #search(String[], String[], int)} and only the
+     * best K are kept while scoring, instead of sorting every document.
+     *
+     * @param terms the lowercase search terms
+     * @param files the documents to rank, or none to search the corpus index
+     * @param k the maximum number of documents to return
+     * @param parallelism the number of threads used to gather statistics of the given documents
+     * @return at most K documents containing at least one term, most relevant first,
+     *         ties ordered by file name
+     * @throws IOException if a document or index cannot be read, or no corpus index has been built
+     */
+    public static SearchResult[] searchTopK(String[] terms, String[] files, int k, int parallelism)
+            throws IOException {
+        InvertedIndex corpus = InvertedIndex.load();
+        if (files.length == 0) {
+            if (corpus == null) {
+                throw new IOException("No corpus index has been built. Run --build-index first.");
+            }
+            return TopKRetriever.retrieve(corpus, terms, k);
+        }
+
+        String[] documents = Arrays.stream(files).distinct().sorted().toArray(String[]::new);
+        QueryStatistics statistics = corpus != null && isIndexedAndFresh(corpus, documents)
+                ? gatherFromInvertedIndex(corpus, terms, documents)
+                : gatherFromDocuments(terms, documents, parallelism);
+
+        double averageLength = Arrays.stream(statistics.documentLengths).average().orElse(0);
+        return selectTopK(documents, statistics, k, documents.length, averageLength);
+    }
+
+    /**
+     * Ranks documents that are already loaded in memory. Only reads the
+     * indexers, so it can be called from many threads at once.
+     *
+     * @param terms the lowercase search terms
+     * @param documents the loaded documents to rank
+     * @return one result per document, most relevant first, ties ordered by file name
+     */
+    public static SearchResult[] search(String[] terms, WordFrequencyIndexer[] documents) {
+        QueryStatistics statistics = new QueryStatistics(documents.length, terms.length);
+        for (int d = 0; d < documents.length; d++) {
+            statistics.documentLengths[d] = documents[d].getTotalTokenCount();
+            for (int t = 0; t < terms.length; t++) {
+                statistics.termCounts[d][t] = documents[d].getWordFrequency(terms[t]);
+                if (statistics.termCounts[d][t] > 0) statistics.documentFrequencies[t]++;
+            }
+        }
+
+        long start = Metrics.start();
+        SearchResult[] results = new SearchResult[documents.length];
+        for (int d = 0; d < documents.length; d++) {
+            results[d] = new SearchResult(documents[d].getFileName(), score(statistics, d));
+        }
+        Metrics.recordScoring(start);
+        return rank(results);
+    }
+
+    /**
+     * Ranks documents whose statistics were gathered by the caller, such as a
+     * batch that reads each document once for many queries.
+     *
+     * @param documents the distinct documents to rank
+     * @param documentLengths the total number of words in each document
+     * @param termCounts the occurrences of each search term in each document
+     * @return one result per document, most relevant first, ties ordered by file name
+     */
+    public static SearchResult[] search(String[] documents, long[] documentLengths, int[][] termCounts) {
+        int termCount = termCounts.length == 0 ? 0 : termCounts[0].length;
+        QueryStatistics statistics = new QueryStatistics(documents.length, termCount);
+        for (int d = 0; d < documents.length; d++) {
+            statistics.documentLengths[d] = documentLengths[d];
+            for (int t = 0; t < termCount; t++) {
+                statistics.termCounts[d][t] = termCounts[d][t];
+                if (termCounts[d][t] > 0) statistics.documentFrequencies[t]++;
+            }
+        }
+
+        long start = Metrics.start();
+        SearchResult[] results = new SearchResult[documents.length];
+        for (int d = 0; d < documents.length; d++) {
+            results[d] = new SearchResult(documents[d], score(statistics, d));
+        }
+        Metrics.recordScoring(start);
+        return rank(results);
+    }
+
+    /**
+     * Ranks part of a collection by TF-IDF, using the size and document
+     * frequencies of the whole collection, such as the documents held by one
+     * shard. Each score is the one the document gets when the whole
+     * collection is ranked at once.
+     *
+     * @param documents the distinct documents to rank, sorted by name
+     * @param documentLengths the total number of words in each document
+     * @param termCounts the occurrences of each search term in each document
+     * @param documentCount the number of documents in the whole collection
+     * @param documentFrequencies the number of documents of the whole collection containing each term
+     * @return one result per document, most relevant first, ties ordered by file name
+     */
+    public static SearchResult[] search(String[] documents, long[] documentLengths, int[][] termCounts,
+                                        int documentCount, int[] documentFrequencies) {
+        QueryStatistics statistics = new QueryStatistics(documentLengths, termCounts, documentFrequencies);
+        long start = Metrics.start();
+        SearchResult[] results = new SearchResult[documents.length];
+        for (int d = 0; d < documents.length; d++) {
+            results[d] = new SearchResult(documents[d], score(statistics, d, documentCount));
+        }
+        Metrics.recordScoring(start);
+        return rank(results);
+    }
+
+    /**
+     * Returns the K documents of part of a collection with the highest BM25
+     * score, using the size, average document length and document
+     * frequencies of the whole collection.
+     *
+     * @param documents the distinct documents to rank, sorted by name
+     * @param documentLengths the total number of words in each document
+     * @param termCounts the occurrences of each search term in each document
+     * @param k the maximum number of documents to return
+     * @param documentCount the number of documents in the whole collection
+     * @param averageLength the average document length of the whole collection
+     * @param documentFrequencies the number of documents of the whole collection containing each term
+     * @return at most K documents containing at least one term, most relevant first,
+     *         ties ordered by file name
+     */
+    public static SearchResult[] searchTopK(String[] documents, long[] documentLengths, int[][] termCounts, int k,
+                                            int documentCount, double averageLength, int[] documentFrequencies) {
+        QueryStatistics statistics = new QueryStatistics(documentLengths, termCounts, documentFrequencies);
+        return selectTopK(documents, statistics, k, documentCount, averageLength);
+    }
+
+    private static SearchResult[] selectTopK(String[] documents, QueryStatistics statistics, int k,
+                                             int documentCount, double averageLength) {
+        long start = Metrics.start();
+        TopKRetriever.ScoreHeap top = new TopKRetriever.ScoreHeap(Math.min(k, documents.length));
+        for (int d = 0; d < documents.length; d++) {
+            double score = BM25Calculator.calculateBM25(statistics.termCounts[d], statistics.documentLengths[d],
+                    averageLength, documentCount, statistics.documentFrequencies);
+            if (score > 0) top.offer(d, score);
+        }
+        int[] best = top.drain();
+        SearchResult[] results = new SearchResult[best.length];
+        for (int i = 0; i < best.length; i++) {
+            results[i] = new SearchResult(documents[best[i]], top.scoreOf(i));
+        }
+        Metrics.recordScoring(start);
+        return results;
+    }
+
+    private static SearchResult[] rank(SearchResult[] results) {
+        Arrays.sort(results, Comparator.comparingDouble(SearchResult::getScore).reversed()
+                .thenComparing(SearchResult::getFileName));
+        return results;
+    }
+
+    private static double score(QueryStatistics statistics, int document) {
+        return score(statistics, document, statistics.termCounts.length);
+    }
+
+    private static double score(QueryStatistics statistics, int document, int documentCount) {
+        int[] termCounts = statistics.termCounts[document];
+        double[] termFrequencies = new double[termCounts.length];
+        for (int t = 0; t < termCounts.length; t++) {
+            if (termCounts[t] == 0) return 0.0;
+            termFrequencies[t] = TFIDFCalculator.calculateTermFrequency(
+                    termCounts[t], statistics.documentLengths[document]);
+        }
+        return TFIDFCalculator.calculateTFIDF(termFrequencies, documentCount, statistics.documentFrequencies);
+    }
+
+    private static boolean isIndexedAndFresh(InvertedIndex corpus, String[] documents) throws IOException {
+        for (String document : documents) {
+            if (!corpus.isFresh(document)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isIndexedAndFresh(PositionalIndex positions, String[] documents) throws IOException {
+        for (String document : documents) {
+            if (!positions.isFresh(document)) return false;
+        }
+        return true;
+    }
+
+    private static QueryStatistics gatherPhraseFromPositionalIndex(PositionalIndex positions, String[] terms,
+                                                                   String[] documents, int slop) {
+        QueryStatistics statistics = new QueryStatistics(documents.length, 1);
+        int[] phraseCounts = positions.countPhrase(terms, slop);
+        for (int d = 0; d < documents.length; d++) {
+            int id = positions.documentId(documents[d]);
+            statistics.documentLengths[d] = positions.getDocumentLength(id);
+            statistics.termCounts[d][0] = phraseCounts[id];
+            if (phraseCounts[id] > 0) statistics.documentFrequencies[0]++;
+        }
+        return statistics;
+    }
+
+    /**
+     * Scans every document for the positions of the phrase terms, several
+     * documents at a time, and counts the phrase in each.
+     */
+    private static QueryStatistics gatherPhraseFromDocuments(String[] terms, String[] documents, int slop,
+                                                             int parallelism) throws IOException {
+        QueryStatistics statistics = new QueryStatistics(documents.length, 1);
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, documents.length)));
+        try {
+            List<Future<Void>> scans = new ArrayList<>();
+            for (int d = 0; d < documents.length; d++) {
+                int document = d;
+                scans.add(workers.submit(() -> {
+                    TermMatcher matcher = IndexStore.scan(documents[document], terms, true);
+                    int[][] positions = new int[terms.length][];
+                    for (int t = 0; t < terms.length; t++) {
+                        positions[t] = matcher.getPositions(t);
+                    }
+                    statistics.termCounts[document][0] = PhraseMatcher.countMatches(positions, slop);
+                    statistics.documentLengths[document] = matcher.getTotalTokenCount();
+                    return null;
+                }));
+            }
+            for (Future<Void> scan : scans) {
+                awaitDocument(scan);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Search was interrupted.", e);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        for (int[] termCounts : statistics.termCounts) {
+            if (termCounts[0] > 0) statistics.documentFrequencies[0]++;
+        }
+        return statistics;
+    }
+
+    private static QueryStatistics gatherFromInvertedIndex(InvertedIndex corpus, String[] terms, String[] documents) {
+        QueryStatistics statistics = new QueryStatistics(documents.length, terms.length);
+        int[] documentOfId = new int[corpus.getDocumentCount()];
+        Arrays.fill(documentOfId, -1);
+        for (int d = 0; d < documents.length; d++) {
+            int id = corpus.documentId(documents[d]);
+            documentOfId[id] = d;
+            statistics.documentLengths[d] = corpus.getDocumentLength(id);
+        }
+
+        for (int t = 0; t < terms.length; t++) {
+            PostingsCursor postings = corpus.postings(terms[t]);
+            while (postings != null && postings.next()) {
+                int document = documentOfId[postings.getDocumentId()];
+                if (document < 0) continue;
+                statistics.termCounts[document][t] = postings.getTermFrequency();
+                statistics.documentFrequencies[t]++;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Gathers the statistics of every document, several documents at a time.
+     * A document with a saved index is opened through {@link IndexStore}; any
+     * other document is scanned once for the search terms only, with a
+     * {@link TermMatcher} instead of a full word table, and the counts are
+     * kept in a {@link TermCountCache} so repeated searches skip the scan.
+     * The document frequency of each term is then the number of documents
+     * with a non-zero count.
+     *
+     * At most {@code min(parallelism, documents)} documents are in flight at
+     * once: a document is only submitted once a permit is free, and its word
+     * counts are dropped as soon as its statistics are recorded. Threads left
+     * over when there are fewer documents than threads tokenize each indexed
+     * document in parallel; otherwise each one is tokenized on one thread
+     * while its next block is read on an I/O thread.
+     */
+    private static QueryStatistics gatherFromDocuments(String[] terms, String[] documents, int parallelism)
+            throws IOException {
+        QueryStatistics statistics = new QueryStatistics(documents.length, terms.length);
+        int inFlightLimit = Math.max(1, Math.min(parallelism, documents.length));
+        int threadsPerDocument = Math.max(1, parallelism / Math.max(1, documents.length));
+
+        ExecutorService workers = Executors.newFixedThreadPool(inFlightLimit);
+        ExecutorService readers = Executors.newFixedThreadPool(inFlightLimit);
+        CompletionService<Void> completion = new ExecutorCompletionService<>(workers);
+        Semaphore inFlight = new Semaphore(inFlightLimit);
+        try {
+            int completed = 0;
+            for (int d = 0; d < documents.length; d++) {
+                inFlight.acquire();
+                int document = d;
+                completion.submit(() -> {
+                    try {
+                        if (IndexStore.hasIndex(documents[document])) {
+                            WordFrequencyIndexer indexer = IndexStore.open(documents[document], threadsPerDocument, readers);
+                            for (int t = 0; t < terms.length; t++) {
+                                statistics.termCounts[document][t] = indexer.getWordFrequency(terms[t]);
+                            }
+                            statistics.documentLengths[document] = indexer.getTotalTokenCount();
+                        } else {
+                            statistics.documentLengths[document] = TermCountCache.count(documents[document], terms,
+                                    statistics.termCounts[document]);
+                        }
+                        return null;
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+
+                Future<Void> done;
+                while ((done = completion.poll()) != null) {
+                    awaitDocument(done);
+                    completed++;
+                }
+            }
+            for (; completed < documents.length; completed++) {
+                awaitDocument(completion.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Search was interrupted.", e);
+        } finally {
+            workers.shutdownNow();
+            readers.shutdownNow();
+        }
+        // Opening documents may have updated some of them; the corpus index follows once, not once per document
+        IndexStore.refreshCorpusIndex(parallelism);
+
+        for (int[] termCounts : statistics.termCounts) {
+            for (int t = 0; t < terms.length; t++) {
+                if (termCounts[t] > 0) statistics.documentFrequencies[t]++;
+            }
+        }
+        return statistics;
+    }
+
+    private static void awaitDocument(Future<Void> document) throws IOException, InterruptedException {
+        try {
+            document.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static class QueryStatistics {
+        private final long[] documentLengths;
+        private final int[][] termCounts;
+        private final int[] documentFrequencies;
+
+        QueryStatistics(int documentCount, int termCount) {
+            this.documentLengths = new long[documentCount];
+            this.termCounts = new int[documentCount][termCount];
+            this.documentFrequencies = new int[termCount];
+        }
+
+        QueryStatistics(long[] documentLengths, int[][] termCounts, int[] documentFrequencies) {
+            this.documentLengths = documentLengths;
+            this.termCounts = termCounts;
+            this.documentFrequencies = documentFrequencies;
+        }
+    }
+}
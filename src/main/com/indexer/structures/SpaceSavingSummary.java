@@ -0,0 +1,300 @@
+package com.indexer.structures;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Space-Saving summary of the most frequent words, in a fixed number of
+ * counters.
+ *
+ * Each monitored word has a count and an error: its true number of
+ * occurrences lies between {@code count - error} and {@code count}. A word
+ * that is not monitored replaces the word with the smallest count, inheriting
+ * that count as its error, so every word occurring more than N / capacity
+ * times over N words is always monitored. The summary also keeps a floor,
+ * the most any word that is not monitored can have occurred.
+ *
+ * Callers that know an upper bound of a word's count, such as a Count-Min
+ * estimate, can pass it along: a word whose bound does not exceed the smallest
+ * count cannot displace it and only raises the floor. This keeps the
+ * summary's bounds valid while skipping most evictions on a long tail of rare
+ * words.
+ *
+ * Counters live in parallel arrays allocated up front: an open-addressing
+ * index finds a word's counter and a min-heap orders counters by count, so an
+ * update takes O(log capacity) time. A counter's word bytes are reused when
+ * the next word fits.
+ */
+public class SpaceSavingSummary {
+    /** Approximate bytes per counter, assuming words of up to 16 letters. */
+    public static final int BYTES_PER_COUNTER = 88;
+    private static final int KEY_CAPACITY = 16;
+
+    private final int capacity;
+    private final byte[][] keys;
+    private final int[] keyLengths;
+    private final int[] hashes;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] heap;
+    private final int[] heapPositions;
+    private final int[] index;
+    private final int indexMask;
+    private int size;
+    private long floor;
+
+    /**
+     * Creates an empty summary.
+     *
+     * @param capacity the number of words monitored at once
+     */
+    public SpaceSavingSummary(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The summary capacity must be positive.");
+        }
+        this.capacity = capacity;
+        keys = new byte[capacity][];
+        keyLengths = new int[capacity];
+        hashes = new int[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        heapPositions = new int[capacity];
+        index = new int[Integer.highestOneBit(capacity) << 2];
+        indexMask = index.length - 1;
+    }
+
+    /**
+     * Adds occurrences of a word.
+     *
+     * @param word the buffer holding the lowercase word
+     * @param length the number of bytes of the word
+     * @param hash the word's {@link String#hashCode()}
+     * @param count the number of occurrences
+     * @param upperBound an upper bound of the word's count including these
+     *                   occurrences, or {@link Long#MAX_VALUE} if none is known
+     */
+    public void add(byte[] word, int length, int hash, long count, long upperBound) {
+        int slot = find(word, length, hash);
+        if (index[slot] != 0) {
+            int counter = index[slot] - 1;
+            counts[counter] += count;
+            siftDown(heapPositions[counter]);
+            return;
+        }
+        if (size == capacity && upperBound <= counts[heap[0]]) {
+            floor = Math.max(floor, upperBound);
+            return;
+        }
+
+        int counter;
+        long inherited;
+        if (size < capacity) {
+            counter = size;
+            heap[size] = counter;
+            heapPositions[counter] = size++;
+            inherited = floor;
+        } else {
+            counter = heap[0];
+            inherited = counts[counter];
+            floor = Math.max(floor, inherited);
+            remove(counter);
+            slot = find(word, length, hash);
+        }
+        setKey(counter, word, length, hash);
+        counts[counter] = inherited + count;
+        errors[counter] = inherited;
+        index[slot] = counter + 1;
+        siftUp(heapPositions[counter]);
+        siftDown(heapPositions[counter]);
+    }
+
+    /**
+     * Merges another summary into this one. A word missing from one summary
+     * is counted there at that summary's floor, both in its count and in its
+     * error; the words with the largest combined counts are kept, and the
+     * largest count that is dropped raises the floor.
+     */
+    public void merge(SpaceSavingSummary other) {
+        int combinedSize = size + other.size;
+        byte[][] mergedKeys = new byte[combinedSize][];
+        int[] mergedHashes = new int[combinedSize];
+        long[] mergedCounts = new long[combinedSize];
+        long[] mergedErrors = new long[combinedSize];
+
+        int merged = 0;
+        boolean[] matched = new boolean[other.size];
+        for (int counter = 0; counter < size; counter++) {
+            byte[] key = Arrays.copyOf(keys[counter], keyLengths[counter]);
+            int found = other.index[other.find(key, key.length, hashes[counter])] - 1;
+            mergedKeys[merged] = key;
+            mergedHashes[merged] = hashes[counter];
+            mergedCounts[merged] = counts[counter] + (found >= 0 ? other.counts[found] : other.floor);
+            mergedErrors[merged] = errors[counter] + (found >= 0 ? other.errors[found] : other.floor);
+            if (found >= 0) matched[found] = true;
+            merged++;
+        }
+        for (int counter = 0; counter < other.size; counter++) {
+            if (matched[counter]) continue;
+            mergedKeys[merged] = Arrays.copyOf(other.keys[counter], other.keyLengths[counter]);
+            mergedHashes[merged] = other.hashes[counter];
+            mergedCounts[merged] = other.counts[counter] + floor;
+            mergedErrors[merged] = other.errors[counter] + floor;
+            merged++;
+        }
+
+        Integer[] order = new Integer[merged];
+        for (int i = 0; i < merged; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> mergedCounts[a] != mergedCounts[b]
+                ? Long.compare(mergedCounts[b], mergedCounts[a])
+                : Arrays.compare(mergedKeys[a], mergedKeys[b]));
+
+        long mergedFloor = floor + other.floor;
+        for (int i = capacity; i < merged; i++) {
+            mergedFloor = Math.max(mergedFloor, mergedCounts[order[i]]);
+        }
+        Arrays.fill(index, 0);
+        size = 0;
+        floor = mergedFloor;
+        for (int i = 0; i < Math.min(capacity, merged); i++) {
+            int source = order[i];
+            byte[] key = mergedKeys[source];
+            int counter = size;
+            setKey(counter, key, key.length, mergedHashes[source]);
+            counts[counter] = mergedCounts[source];
+            errors[counter] = mergedErrors[source];
+            index[find(key, key.length, mergedHashes[source])] = counter + 1;
+            heap[size] = counter;
+            heapPositions[counter] = size++;
+            siftUp(heapPositions[counter]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the most any word that is not monitored can have occurred.
+     */
+    public long getFloor() {
+        return floor;
+    }
+
+    public String keyAt(int counter) {
+        return new String(keys[counter], 0, keyLengths[counter], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the hash of a monitored word, as passed to {@link #add}.
+     */
+    public int hashAt(int counter) {
+        return hashes[counter];
+    }
+
+    /**
+     * Returns the bytes of a monitored word. The array may be longer than the word.
+     */
+    public byte[] keyBytesAt(int counter) {
+        return keys[counter];
+    }
+
+    public int keyLengthAt(int counter) {
+        return keyLengths[counter];
+    }
+
+    /**
+     * Returns an upper bound of the occurrences of a monitored word.
+     */
+    public long countAt(int counter) {
+        return counts[counter];
+    }
+
+    /**
+     * Returns a lower bound of the occurrences of a monitored word.
+     */
+    public long lowerBoundAt(int counter) {
+        return counts[counter] - errors[counter];
+    }
+
+    private void setKey(int counter, byte[] word, int length, int hash) {
+        if (keys[counter] == null || keys[counter].length < length) {
+            keys[counter] = new byte[Math.max(length, KEY_CAPACITY)];
+        }
+        System.arraycopy(word, 0, keys[counter], 0, length);
+        keyLengths[counter] = length;
+        hashes[counter] = hash;
+    }
+
+    /**
+     * Returns the index slot holding the word, or the empty slot where it
+     * would be inserted.
+     */
+    private int find(byte[] word, int length, int hash) {
+        int slot = WordCountTable.spread(hash) & indexMask;
+        while (index[slot] != 0) {
+            int counter = index[slot] - 1;
+            if (hashes[counter] == hash && keyLengths[counter] == length
+                    && Arrays.equals(keys[counter], 0, length, word, 0, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes a counter's word from the index, shifting back the entries of
+     * its probe run so that lookups never stop at the freed slot.
+     */
+    private void remove(int counter) {
+        int slot = find(keys[counter], keyLengths[counter], hashes[counter]);
+        index[slot] = 0;
+        int next = (slot + 1) & indexMask;
+        while (index[next] != 0) {
+            int home = WordCountTable.spread(hashes[index[next] - 1]) & indexMask;
+            if (((next - home) & indexMask) >= ((next - slot) & indexMask)) {
+                index[slot] = index[next];
+                index[next] = 0;
+                slot = next;
+            }
+            next = (next + 1) & indexMask;
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[heap[parent]] <= counts[heap[position]]) break;
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && counts[heap[left]] < counts[heap[smallest]]) smallest = left;
+            if (right < size && counts[heap[right]] < counts[heap[smallest]]) smallest = right;
+            if (smallest == position) return;
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int counter = heap[i];
+        heap[i] = heap[j];
+        heap[j] = counter;
+        heapPositions[heap[i]] = i;
+        heapPositions[heap[j]] = j;
+    }
+}
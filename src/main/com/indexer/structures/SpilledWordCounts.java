@@ -0,0 +1,321 @@
+package com.indexer.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.indexer.models.HashEntry;
+import com.indexer.utils.VarInt;
+
+/**
+ * Word counts kept on disk for documents whose vocabulary does not fit in a
+ * memory budget.
+ *
+ * Whenever the in-memory table grows over the budget it is written out as a
+ * run sorted by word and cleared. Once the document has been read, the runs
+ * are k-way merged into a single sorted file holding the final counts, which
+ * queries then scan sequentially. Only one word per run and the K selected
+ * words of a top-K query are held in memory at a time.
+ *
+ * Every run being merged is read through its own buffer, so the number of
+ * runs merged at once is limited by the budget, and by {@link #MAXIMUM_FAN_IN}
+ * to keep the number of open files small. When there are more runs, they are
+ * merged in several passes, each replacing the oldest runs with their merge.
+ *
+ * Runs use the layout of {@link IndexStore#writeCounts}: the number of words
+ * followed by every word and its count, here in ascending word order.
+ */
+public class SpilledWordCounts implements Closeable {
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    private static final int MAXIMUM_FAN_IN = 64;
+    private static final int MINIMUM_FAN_IN = 2;
+    private static final Comparator<HashEntry> LOWEST_RANK_FIRST =
+            Comparator.comparingInt(HashEntry::getValue)
+                    .thenComparing(HashEntry::getKey, Comparator.reverseOrder());
+
+    private final List<Path> runs = new ArrayList<>();
+    private final int fanIn;
+    private Path merged;
+    private int distinctWords;
+    private long totalCount;
+
+    /**
+     * Creates empty counts whose merge buffers fit the given budget.
+     *
+     * @param memoryBudget the budget in bytes, or 0 for no limit
+     */
+    public SpilledWordCounts(long memoryBudget) {
+        // One buffer per merged run, plus one for the output
+        long buffers = memoryBudget > 0 ? memoryBudget / STREAM_BUFFER_SIZE - 1 : MAXIMUM_FAN_IN;
+        this.fanIn = (int) Math.max(MINIMUM_FAN_IN, Math.min(MAXIMUM_FAN_IN, buffers));
+    }
+
+    /**
+     * Writes the contents of a table as a new sorted run and clears the table.
+     *
+     * @param table the table to spill, no longer being resized
+     * @throws IOException if the run cannot be written
+     */
+    public void spill(WordCountTable table) throws IOException {
+        if (merged != null) {
+            throw new IllegalStateException("Counts have already been merged.");
+        }
+        Path run = createTemporaryFile();
+        runs.add(run);
+
+        TermDictionary dictionary = table.getDictionary();
+        int[] slots = table.sortedSlots();
+        try (DataOutputStream out = openOutput(run)) {
+            out.writeInt(slots.length);
+            for (int slot : slots) {
+                int term = table.termAt(slot);
+                VarInt.write(out, dictionary.length(term));
+                dictionary.writeTerm(term, out);
+                VarInt.write(out, table.countAt(slot));
+            }
+        }
+        totalCount += table.getTotalCount();
+        table.clear();
+    }
+
+    /**
+     * Merges every run into the final counts, summing the counts of words that
+     * appear in several runs. The runs are deleted afterwards.
+     *
+     * @throws IOException if a run cannot be read or the result cannot be written
+     */
+    public void merge() throws IOException {
+        while (runs.size() > fanIn) {
+            List<Path> oldest = runs.subList(0, fanIn);
+            Path output = createTemporaryFile();
+            try {
+                mergeRuns(oldest, output);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(output);
+                throw e;
+            }
+            for (Path run : oldest) {
+                Files.deleteIfExists(run);
+            }
+            oldest.clear();
+            runs.add(output);
+        }
+
+        Path output = createTemporaryFile();
+        try {
+            distinctWords = mergeRuns(runs, output);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        merged = output;
+    }
+
+    /**
+     * Merges the given runs into a new run written to the output file.
+     *
+     * @return the number of distinct words written
+     */
+    private static int mergeRuns(List<Path> inputs, Path output) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Comparator.comparing((RunReader r) -> r.word));
+        try {
+            for (Path run : inputs) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            int written = 0;
+            try (DataOutputStream out = openOutput(output)) {
+                out.writeInt(0); // patched with the number of merged words below
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    String word = reader.word;
+                    int count = reader.count;
+                    requeue(queue, reader);
+                    while (!queue.isEmpty() && queue.peek().word.equals(word)) {
+                        RunReader same = queue.poll();
+                        count += same.count;
+                        requeue(queue, same);
+                    }
+                    writeEntry(out, word, count);
+                    written++;
+                }
+            }
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, written), 0);
+            }
+            return written;
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Selects the K most frequent words in one pass over the merged counts,
+     * ranking words with equal counts alphabetically.
+     *
+     * @param k the number of words to select
+     * @return at most K entries, most frequent first
+     * @throws IOException if the merged counts cannot be read
+     */
+    public HashEntry[] getTopFrequencies(int k) throws IOException {
+        PriorityQueue<HashEntry> heap = new PriorityQueue<>(Math.max(1, Math.min(k, distinctWords)), LOWEST_RANK_FIRST);
+        try (RunReader reader = new RunReader(mergedPath())) {
+            while (reader.advance()) {
+                if (heap.size() < k) {
+                    heap.add(new HashEntry(reader.word, reader.count));
+                } else if (k > 0 && ranksHigher(reader.word, reader.count, heap.peek())) {
+                    heap.poll();
+                    heap.add(new HashEntry(reader.word, reader.count));
+                }
+            }
+        }
+
+        HashEntry[] topEntries = new HashEntry[heap.size()];
+        for (int i = topEntries.length - 1; i >= 0; i--) {
+            topEntries[i] = heap.poll();
+        }
+        return topEntries;
+    }
+
+    /**
+     * Returns the merged count of a word, or 0 if the word is not present. The
+     * merged counts are scanned until the word's position in sorted order.
+     *
+     * @param word the word to look up
+     * @return the number of occurrences of the word
+     * @throws IOException if the merged counts cannot be read
+     */
+    public int getWordFrequency(String word) throws IOException {
+        try (RunReader reader = new RunReader(mergedPath())) {
+            while (reader.advance()) {
+                int order = reader.word.compareTo(word);
+                if (order == 0) return reader.count;
+                if (order > 0) return 0;
+            }
+        }
+        return 0;
+    }
+
+    public int size() {
+        return distinctWords;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Deletes the runs and the merged counts.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        if (merged != null) {
+            Files.deleteIfExists(merged);
+        }
+    }
+
+    private Path mergedPath() {
+        if (merged == null) {
+            throw new IllegalStateException("Counts have not been merged yet.");
+        }
+        return merged;
+    }
+
+    private static boolean ranksHigher(String word, int count, HashEntry other) {
+        if (count != other.getValue()) {
+            return count > other.getValue();
+        }
+        return word.compareTo(other.getKey()) < 0;
+    }
+
+    private static void requeue(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+        if (reader.advance()) {
+            queue.add(reader);
+        } else {
+            reader.close();
+        }
+    }
+
+    private static Path createTemporaryFile() throws IOException {
+        Path file = Files.createTempFile("indexer-", ".run");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static DataOutputStream openOutput(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), STREAM_BUFFER_SIZE));
+    }
+
+    private static void writeEntry(DataOutputStream out, String word, int count) throws IOException {
+        byte[] bytes = word.getBytes(StandardCharsets.ISO_8859_1);
+        VarInt.write(out, bytes.length);
+        out.write(bytes);
+        VarInt.write(out, count);
+    }
+
+    /**
+     * Reads the entries of a run in order.
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private int remaining;
+        private byte[] buffer = new byte[64];
+        String word;
+        int count;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), STREAM_BUFFER_SIZE));
+            remaining = in.readInt();
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            int length = (int) VarInt.read(in);
+            if (length > buffer.length) {
+                buffer = new byte[length];
+            }
+            in.readFully(buffer, 0, length);
+            word = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+            count = (int) VarInt.read(in);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
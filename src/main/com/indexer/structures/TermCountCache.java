@@ -0,0 +1,142 @@
+package com.indexer.structures;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.indexer.models.DocumentMetadata;
+import com.indexer.utils.TermMatcher;
+
+/**
+ * Search statistics of documents without a saved index: the number of words
+ * of a document and the counts of the terms searched in it so far.
+ *
+ * Such a document is only scanned for the terms of a search, so the counts
+ * are kept in {@code index/<document>.terms} together with the size and
+ * modification time the document had when it was scanned. Later searches
+ * reuse them while the document is unchanged and only scan it again for terms
+ * that have not been counted yet. Once the document changes, its counts are
+ * discarded and gathered again.
+ */
+class TermCountCache {
+    private static final String EXTENSION = ".terms";
+    private static final int MAGIC = 0x54434331;
+    private static final int VERSION = 1;
+    private static final int MAXIMUM_TERMS = 4096;
+    private static final AtomicBoolean LEGACY_STATISTICS_DELETED = new AtomicBoolean();
+
+    private TermCountCache() {
+    }
+
+    /**
+     * Counts the terms in a document, scanning it only for the terms that are
+     * not cached for its current version.
+     *
+     * @param fileName the name of the document inside the docs directory
+     * @param terms the lowercase search terms
+     * @param counts receives the count of each term
+     * @return the number of words of the document
+     * @throws IOException if the document cannot be read
+     */
+    static long count(String fileName, String[] terms, int[] counts) throws IOException {
+        Path path = IndexStore.INDEX_DIRECTORY.resolve(fileName + EXTENSION);
+        DocumentMetadata current = IndexStore.describe(Paths.get("docs", fileName), false);
+        Map<String, Integer> cached = new LinkedHashMap<>();
+        long documentLength = read(path, current, cached);
+
+        List<String> missing = new ArrayList<>();
+        for (String term : terms) {
+            if (!cached.containsKey(term) && !missing.contains(term)) missing.add(term);
+        }
+        if (!missing.isEmpty()) {
+            TermMatcher matcher = IndexStore.scan(fileName, missing.toArray(new String[0]));
+            if (cached.size() + missing.size() > MAXIMUM_TERMS) {
+                cached.clear();
+            }
+            for (int i = 0; i < missing.size(); i++) {
+                cached.put(missing.get(i), matcher.getCount(i));
+            }
+            documentLength = matcher.getTotalTokenCount();
+            write(path, current, documentLength, cached);
+        }
+
+        for (int t = 0; t < terms.length; t++) {
+            Integer count = cached.get(terms[t]);
+            counts[t] = count != null ? count : 0;
+        }
+        return documentLength;
+    }
+
+    /**
+     * Reads the cached counts of a document into the map, unless they were
+     * gathered from another version of it.
+     *
+     * @return the cached number of words, or -1 if nothing is cached
+     */
+    private static long read(Path path, DocumentMetadata current, Map<String, Integer> counts) throws IOException {
+        if (!Files.exists(path)) return -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != current.getSize() || in.readLong() != current.getLastModified()) {
+                return -1;
+            }
+            long documentLength = in.readLong();
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                counts.put(term, in.readInt());
+            }
+            return documentLength;
+        }
+    }
+
+    private static void write(Path path, DocumentMetadata metadata, long documentLength,
+                              Map<String, Integer> counts) throws IOException {
+        Files.createDirectories(path.getParent());
+        deleteLegacyStatistics();
+        Path temporaryPath = IndexStore.createTemporaryFile(path);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(metadata.getSize());
+                out.writeLong(metadata.getLastModified());
+                out.writeLong(documentLength);
+                out.writeInt(counts.size());
+                for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+            }
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    /**
+     * Deletes the {@code stats-*.bin} files of the statistics cache this one
+     * replaces, once per process.
+     */
+    private static void deleteLegacyStatistics() throws IOException {
+        if (!LEGACY_STATISTICS_DELETED.compareAndSet(false, true)) return;
+        try (DirectoryStream<Path> legacy = Files.newDirectoryStream(IndexStore.INDEX_DIRECTORY, "stats-*.bin")) {
+            for (Path file : legacy) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
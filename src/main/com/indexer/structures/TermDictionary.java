@@ -0,0 +1,258 @@
+package com.indexer.structures;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps every distinct word to a compact int id and stores the word's bytes
+ * once, so word tables only need to keep {@code id -> count}.
+ *
+ * Word bytes are appended to an arena of fixed-size byte[] pages and never
+ * move once written. For each id the dictionary records the page, offset,
+ * length and hash of its word in chunked int arrays. By default every word
+ * table of the process shares {@link #shared()}, so a word that occurs in many
+ * documents is stored once, and tables built on the same dictionary can be
+ * joined by comparing ids.
+ *
+ * Interning is synchronized. Reading a word by id needs no lock: an id is only
+ * ever handed out after its bytes are written, and the page and chunk arrays
+ * are published through volatile fields when they grow.
+ */
+public class TermDictionary {
+    private static final TermDictionary SHARED = new TermDictionary();
+
+    private static final int PAGE_SIZE = 1 << 16;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int FIELDS = 4;
+    private static final int PAGE = 0;
+    private static final int OFFSET = 1;
+    private static final int LENGTH = 2;
+    private static final int HASH = 3;
+    private static final int INITIAL_SLOTS = 1 << 10;
+
+    private volatile byte[][] pages;
+    private volatile int[][] chunks;
+    private int pageCount;
+    private int pageUsed;
+    private int size;
+    private long arenaBytes;
+
+    private int[] slots;
+    private int mask;
+
+    public TermDictionary() {
+        clear();
+    }
+
+    /**
+     * Returns the dictionary shared by every word table that is not given one
+     * explicitly.
+     */
+    public static TermDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the id of a lowercase ASCII word held in a buffer, adding the
+     * word if it is not present yet.
+     *
+     * @param word the buffer holding the word's bytes
+     * @param length the number of bytes of the word
+     * @param hash the polynomial hash of the bytes, equal to the word's {@link String#hashCode()}
+     * @return the word's id
+     */
+    public synchronized int intern(byte[] word, int length, int hash) {
+        int slot = WordCountTable.spread(hash) & mask;
+        int id;
+        while ((id = slots[slot] - 1) >= 0) {
+            if (hashOf(id) == hash && matches(id, word, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        id = append(word, length, hash);
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of a word, adding the word if it is not present yet.
+     *
+     * @param word the word
+     * @return the word's id
+     */
+    public int intern(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.ISO_8859_1);
+        return intern(bytes, bytes.length, word.hashCode());
+    }
+
+    /**
+     * Tells whether the word with the given id equals the bytes of a buffer.
+     */
+    public boolean matches(int id, byte[] word, int length) {
+        int[] chunk = chunkOf(id);
+        int base = fieldBase(id);
+        if (chunk[base + LENGTH] != length) return false;
+        byte[] page = pages[chunk[base + PAGE]];
+        int offset = chunk[base + OFFSET];
+        for (int i = 0; i < length; i++) {
+            if (page[offset + i] != word[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether the word with the given id equals a String.
+     */
+    public boolean matches(int id, String word) {
+        int[] chunk = chunkOf(id);
+        int base = fieldBase(id);
+        int length = chunk[base + LENGTH];
+        if (length != word.length()) return false;
+        byte[] page = pages[chunk[base + PAGE]];
+        int offset = chunk[base + OFFSET];
+        for (int i = 0; i < length; i++) {
+            if ((page[offset + i] & 0xFF) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares two words by their bytes, in the same order as {@link String#compareTo}
+     * for lowercase ASCII words.
+     */
+    public int compare(int id, int otherId) {
+        int[] chunk = chunkOf(id);
+        int base = fieldBase(id);
+        int[] otherChunk = chunkOf(otherId);
+        int otherBase = fieldBase(otherId);
+        int offset = chunk[base + OFFSET];
+        int otherOffset = otherChunk[otherBase + OFFSET];
+        return Arrays.compareUnsigned(pages[chunk[base + PAGE]], offset, offset + chunk[base + LENGTH],
+                pages[otherChunk[otherBase + PAGE]], otherOffset, otherOffset + otherChunk[otherBase + LENGTH]);
+    }
+
+    /**
+     * Returns a new String holding the word with the given id.
+     */
+    public String term(int id) {
+        int[] chunk = chunkOf(id);
+        int base = fieldBase(id);
+        return new String(pages[chunk[base + PAGE]], chunk[base + OFFSET], chunk[base + LENGTH],
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes the bytes of the word with the given id.
+     */
+    public void writeTerm(int id, OutputStream out) throws IOException {
+        int[] chunk = chunkOf(id);
+        int base = fieldBase(id);
+        out.write(pages[chunk[base + PAGE]], chunk[base + OFFSET], chunk[base + LENGTH]);
+    }
+
+    public int length(int id) {
+        return chunkOf(id)[fieldBase(id) + LENGTH];
+    }
+
+    public int hashOf(int id) {
+        return chunkOf(id)[fieldBase(id) + HASH];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns a rough estimate of the heap used by the dictionary.
+     */
+    public synchronized long estimatedMemoryUsage() {
+        long chunkCount = (size >>> CHUNK_BITS) + 1;
+        return arenaBytes + chunkCount * CHUNK_SIZE * FIELDS * Integer.BYTES
+                + (long) slots.length * Integer.BYTES;
+    }
+
+    /**
+     * Removes every word. Ids handed out before are no longer valid, so this
+     * must only be called on a dictionary that no live table uses.
+     */
+    public synchronized void clear() {
+        pages = new byte[][] {new byte[PAGE_SIZE]};
+        pageCount = 1;
+        pageUsed = 0;
+        chunks = new int[][] {new int[CHUNK_SIZE * FIELDS]};
+        size = 0;
+        arenaBytes = PAGE_SIZE;
+        slots = new int[INITIAL_SLOTS];
+        mask = INITIAL_SLOTS - 1;
+    }
+
+    private int append(byte[] word, int length, int hash) {
+        int page = pageCount - 1;
+        if (pageUsed + length > pages[page].length) {
+            page = addPage(Math.max(PAGE_SIZE, length));
+        }
+        System.arraycopy(word, 0, pages[page], pageUsed, length);
+
+        int id = size;
+        int chunkIndex = id >>> CHUNK_BITS;
+        int[][] currentChunks = chunks;
+        if (chunkIndex == currentChunks.length) {
+            currentChunks = Arrays.copyOf(currentChunks, currentChunks.length * 2);
+        }
+        if (currentChunks[chunkIndex] == null) {
+            currentChunks[chunkIndex] = new int[CHUNK_SIZE * FIELDS];
+            chunks = currentChunks;
+        }
+        int[] chunk = currentChunks[chunkIndex];
+        int base = fieldBase(id);
+        chunk[base + PAGE] = page;
+        chunk[base + OFFSET] = pageUsed;
+        chunk[base + LENGTH] = length;
+        chunk[base + HASH] = hash;
+
+        pageUsed += length;
+        size++;
+        return id;
+    }
+
+    private int addPage(int capacity) {
+        byte[][] current = pages;
+        if (pageCount == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[pageCount] = new byte[capacity];
+        pages = current;
+        pageUsed = 0;
+        arenaBytes += capacity;
+        return pageCount++;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int grownMask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = WordCountTable.spread(hashOf(id)) & grownMask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & grownMask;
+            }
+            grown[slot] = id + 1;
+        }
+        slots = grown;
+        mask = grownMask;
+    }
+
+    private int[] chunkOf(int id) {
+        return chunks[id >>> CHUNK_BITS];
+    }
+
+    private static int fieldBase(int id) {
+        return (id & (CHUNK_SIZE - 1)) * FIELDS;
+    }
+}
@@ -0,0 +1,270 @@
+package com.indexer.structures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.indexer.metrics.Metrics;
+import com.indexer.models.SearchResult;
+import com.indexer.utils.BM25Calculator;
+
+/**
+ * Retrieves the K documents of the corpus index with the highest BM25 score,
+ * using block-max WAND to skip documents that cannot enter the top K.
+ *
+ * Every query term keeps a cursor over its postings and an upper bound on the
+ * score it can add to any document. Cursors are kept ordered by their current
+ * document; the pivot is the first document at which the bounds of the
+ * cursors up to it exceed the score of the K-th result so far, since no
+ * earlier document can. Before the pivot is scored, the bounds of the postings
+ * blocks holding it are checked as well, and when even those fall short every
+ * cursor skips past the nearest block end without decoding the postings in
+ * between. The work done therefore grows with K and the number of query terms
+ * rather than with the number of documents.
+ *
+ * Statistics are those of the whole corpus index as of the last
+ * {@code --build-index}. Ties are ordered by file name, which is the order of
+ * document ids.
+ */
+public class TopKRetriever {
+    // Bounds are computed in a different order than scores, so a little slack keeps them safe from rounding
+    private static final double BOUND_SLACK = 1 + 1e-9;
+
+    /**
+     * Retrieves the best documents of the corpus for the search terms.
+     *
+     * @param corpus the corpus index
+     * @param terms the lowercase search terms
+     * @param k the maximum number of documents to return
+     * @return at most K documents containing at least one term, most relevant first
+     */
+    public static SearchResult[] retrieve(InvertedIndex corpus, String[] terms, int k) {
+        long start = Metrics.start();
+        int documentCount = corpus.getDocumentCount();
+        double averageLength = corpus.getAverageDocumentLength();
+
+        List<TermCursor> termCursors = new ArrayList<>();
+        for (int t = 0; t < terms.length; t++) {
+            PostingsCursor postings = corpus.postings(terms[t]);
+            if (postings == null || !postings.next()) continue;
+            double idf = BM25Calculator.calculateInverseDocumentFrequency(documentCount, postings.getDocumentFrequency());
+            termCursors.add(new TermCursor(postings, t, idf, averageLength));
+        }
+        TermCursor[] cursors = termCursors.toArray(new TermCursor[0]);
+
+        ScoreHeap top = new ScoreHeap(Math.min(k, documentCount));
+        while (true) {
+            sortByDocument(cursors);
+            double threshold = top.threshold();
+
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < cursors.length && cursors[i].document() != PostingsCursor.NO_MORE_DOCUMENTS; i++) {
+                bound += cursors[i].maxScore;
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) break;
+            int pivotDocument = cursors[pivot].document();
+            while (pivot + 1 < cursors.length && cursors[pivot + 1].document() == pivotDocument) {
+                pivot++;
+            }
+
+            double blockBound = 0;
+            long nextDocument = pivot + 1 < cursors.length ? cursors[pivot + 1].document() : PostingsCursor.NO_MORE_DOCUMENTS;
+            for (int i = 0; i <= pivot; i++) {
+                int blockEnd = cursors[i].postings.shallowAdvance(pivotDocument);
+                blockBound += cursors[i].blockMaxScore();
+                if (blockEnd != PostingsCursor.NO_MORE_DOCUMENTS) {
+                    nextDocument = Math.min(nextDocument, (long) blockEnd + 1);
+                }
+            }
+
+            if (blockBound <= threshold) {
+                // No document before the end of the nearest block can make it into the top K
+                for (int i = 0; i <= pivot; i++) {
+                    cursors[i].postings.advance((int) nextDocument);
+                }
+            } else if (cursors[0].document() == pivotDocument) {
+                double score = 0;
+                long length = corpus.getDocumentLength(pivotDocument);
+                for (int i = 0; i <= pivot; i++) {
+                    score += cursors[i].score(length);
+                    cursors[i].postings.next();
+                }
+                top.offer(pivotDocument, score);
+            } else {
+                for (int i = 0; i < pivot && cursors[i].document() < pivotDocument; i++) {
+                    cursors[i].postings.advance(pivotDocument);
+                }
+            }
+        }
+
+        int[] documents = top.drain();
+        SearchResult[] results = new SearchResult[documents.length];
+        for (int i = 0; i < documents.length; i++) {
+            results[i] = new SearchResult(corpus.getDocumentName(documents[i]), top.scoreOf(i));
+        }
+        Metrics.recordScoring(start);
+        return results;
+    }
+
+    /**
+     * Orders the cursors by document, and cursors on the same document by term
+     * order, so a document's score is summed in the same order as
+     * {@link BM25Calculator#calculateBM25} would.
+     */
+    private static void sortByDocument(TermCursor[] cursors) {
+        for (int i = 1; i < cursors.length; i++) {
+            TermCursor cursor = cursors[i];
+            int j = i - 1;
+            while (j >= 0 && cursors[j].comesAfter(cursor)) {
+                cursors[j + 1] = cursors[j];
+                j--;
+            }
+            cursors[j + 1] = cursor;
+        }
+    }
+
+    private static class TermCursor {
+        private final PostingsCursor postings;
+        private final int ordinal;
+        private final double idf;
+        private final double averageLength;
+        private final double[] blockMaxScores;
+        private final double maxScore;
+
+        TermCursor(PostingsCursor postings, int ordinal, double idf, double averageLength) {
+            this.postings = postings;
+            this.ordinal = ordinal;
+            this.idf = idf;
+            this.averageLength = averageLength;
+            blockMaxScores = new double[postings.getBlockCount()];
+            double max = 0;
+            for (int block = 0; block < blockMaxScores.length; block++) {
+                blockMaxScores[block] = idf * BM25Calculator.calculateTermFrequency(
+                        postings.blockMaxTermFrequency(block), postings.blockMinDocumentLength(block), averageLength)
+                        * BOUND_SLACK;
+                max = Math.max(max, blockMaxScores[block]);
+            }
+            this.maxScore = max;
+        }
+
+        int document() {
+            return postings.getDocumentId();
+        }
+
+        boolean comesAfter(TermCursor other) {
+            return document() != other.document() ? document() > other.document() : ordinal > other.ordinal;
+        }
+
+        double score(long documentLength) {
+            return idf * BM25Calculator.calculateTermFrequency(postings.getTermFrequency(), documentLength, averageLength);
+        }
+
+        /**
+         * Returns the bound of the block found by the last shallow advance, or
+         * 0 if the postings ended before its target.
+         */
+        double blockMaxScore() {
+            int block = postings.getShallowBlock();
+            return block < blockMaxScores.length ? blockMaxScores[block] : 0;
+        }
+    }
+
+    /**
+     * Bounded min-heap of the best documents seen so far. The root is the
+     * weakest of them: the lowest score, and among equal scores the highest
+     * document number, so that earlier documents win ties.
+     */
+    static class ScoreHeap {
+        private final int[] documents;
+        private final double[] scores;
+        private int size;
+
+        ScoreHeap(int capacity) {
+            documents = new int[capacity];
+            scores = new double[capacity];
+        }
+
+        /**
+         * Returns the score a document must exceed to enter the heap.
+         */
+        double threshold() {
+            return size < documents.length ? Double.NEGATIVE_INFINITY : scores[0];
+        }
+
+        /**
+         * Offers a document. Documents must be offered in ascending order, so a
+         * score equal to the threshold never enters a full heap.
+         */
+        void offer(int document, double score) {
+            if (size < documents.length) {
+                documents[size] = document;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (documents.length > 0 && score > scores[0]) {
+                documents[0] = document;
+                scores[0] = score;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * Empties the heap into best-first order. Afterwards the score of the
+         * i-th document is returned by {@link #scoreOf(int)}.
+         */
+        int[] drain() {
+            int count = size;
+            for (int last = size - 1; last > 0; last--) {
+                swap(0, last);
+                siftDown(0, last);
+            }
+            size = 0;
+            int[] drained = new int[count];
+            System.arraycopy(documents, 0, drained, 0, count);
+            return drained;
+        }
+
+        double scoreOf(int index) {
+            return scores[index];
+        }
+
+        private boolean weaker(int i, int j) {
+            if (scores[i] != scores[j]) return scores[i] < scores[j];
+            return documents[i] > documents[j];
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (!weaker(index, parent)) break;
+                swap(parent, index);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index, int size) {
+            while (true) {
+                int weakest = index;
+                int left = 2 * index + 1;
+                int right = 2 * index + 2;
+                if (left < size && weaker(left, weakest)) weakest = left;
+                if (right < size && weaker(right, weakest)) weakest = right;
+                if (weakest == index) return;
+                swap(index, weakest);
+                index = weakest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int document = documents[i];
+            documents[i] = documents[j];
+            documents[j] = document;
+            double score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package com.indexer.structures;
+
+import java.util.Arrays;
+
+import com.indexer.metrics.Metrics;
+import com.indexer.models.HashEntry;
+
+/**
+ * Open-addressing hash table that maps words to occurrence counts.
+ *
+ * Words are stored once in a {@link TermDictionary} and the table only keeps
+ * their int ids, cached hashes and counts in parallel arrays. Collisions are
+ * resolved with linear probing, so incrementing a word that is already
+ * present walks a few adjacent slots and allocates nothing. Tables sharing a
+ * dictionary are merged by comparing ids instead of word bytes.
+ *
+ * Growing the table does not rehash every word at once. A resize only
+ * allocates the doubled arrays; the previous arrays are kept and a few of
+ * their slots are moved over on every insertion, so a large vocabulary never
+ * stalls ingestion for a full rehash. While a resize is in progress, lookups
+ * probe the new arrays and then the previous ones.
+ *
+ * Reading never modifies the table, so a table that is no longer written to
+ * can be read by several threads at once. The thread that fills a table calls
+ * {@link #finishResize()} when it is done; operations that walk every slot
+ * refuse a table whose resize is still in progress.
+ */
+public class WordCountTable {
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int BYTES_PER_SLOT = 3 * Integer.BYTES;
+    private static final int EMPTY = -1;
+    private static final int MIGRATION_STEP = 8;
+    private static final long AVERAGE_WORD_BYTES = 6;
+    private static final double HEAPS_K = 30;
+    private static final double HEAPS_BETA = 0.5;
+
+    private final TermDictionary dictionary;
+    private final boolean ownsDictionary;
+    private final int initialCapacity;
+    private int[] terms;
+    private int[] hashes;
+    private int[] counts;
+    private int mask;
+    private int size;
+    private int threshold;
+    private long totalCount;
+
+    private int[] oldTerms;
+    private int[] oldHashes;
+    private int[] oldCounts;
+    private int oldMask;
+    private int migrated;
+
+    public WordCountTable() {
+        this(DEFAULT_CAPACITY / 2);
+    }
+
+    /**
+     * Creates a table able to hold the given number of distinct words before
+     * its first resize, storing its words in the shared dictionary.
+     *
+     * @param expectedSize the expected number of distinct words
+     */
+    public WordCountTable(int expectedSize) {
+        this(expectedSize, TermDictionary.shared(), false);
+    }
+
+    private WordCountTable(int expectedSize, TermDictionary dictionary, boolean ownsDictionary) {
+        this.dictionary = dictionary;
+        this.ownsDictionary = ownsDictionary;
+        this.initialCapacity = capacityFor(expectedSize);
+        allocate(initialCapacity);
+    }
+
+    /**
+     * Creates a table that stores its words in a dictionary of its own, which
+     * {@link #clear()} empties along with the table. Used when the memory held
+     * by the words must be released, as with a memory budget.
+     */
+    public static WordCountTable withPrivateDictionary() {
+        return new WordCountTable(DEFAULT_CAPACITY / 2, new TermDictionary(), true);
+    }
+
+    /**
+     * Estimates the number of distinct words in a text of the given size with
+     * Heaps' law, {@code V = K * N^beta}, where {@code N} is the number of words
+     * assuming an average of six bytes per word and its separator. The
+     * constants are typical of English prose, so the estimate is meant for
+     * presizing a table, not as a bound.
+     *
+     * @param bytes the size of the text in bytes
+     * @return the estimated vocabulary size
+     */
+    public static int estimateDistinctWords(long bytes) {
+        double words = (double) bytes / AVERAGE_WORD_BYTES;
+        return (int) Math.min(MAXIMUM_CAPACITY / 2, HEAPS_K * Math.pow(words, HEAPS_BETA));
+    }
+
+    /**
+     * Grows the table so it can hold the given number of distinct words before
+     * its next resize. Does nothing if it already can.
+     *
+     * @param expectedSize the expected number of distinct words
+     */
+    public void ensureCapacity(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        if (capacity <= terms.length) return;
+        finishResize();
+        int[] currentTerms = terms;
+        int[] currentHashes = hashes;
+        int[] currentCounts = counts;
+        allocate(capacity);
+        for (int slot = 0; slot < currentTerms.length; slot++) {
+            if (currentTerms[slot] != EMPTY) {
+                place(currentTerms[slot], currentHashes[slot], currentCounts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Adds the given amount to the count of a word, inserting it if absent.
+     * A negative amount that brings the count to zero removes the word.
+     *
+     * @param key the word to count
+     * @param delta the amount to add
+     */
+    public void increment(String key, int delta) {
+        int hash = spread(key.hashCode());
+        int slot = hash & mask;
+        int term;
+        while ((term = terms[slot]) != EMPTY) {
+            if (hashes[slot] == hash && dictionary.matches(term, key)) {
+                add(slot, delta);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        addMissing(slot, dictionary.intern(key), hash, delta);
+    }
+
+    /**
+     * Adds the given amount to the count of a lowercase ASCII word held in a
+     * reusable buffer. The dictionary is only consulted the first time the
+     * table sees the word.
+     *
+     * @param word the buffer holding the word's bytes
+     * @param length the number of bytes of the word
+     * @param wordHash the polynomial hash of the bytes, equal to the word's {@link String#hashCode()}
+     * @param delta the amount to add
+     */
+    public void increment(byte[] word, int length, int wordHash, int delta) {
+        int hash = spread(wordHash);
+        int slot = hash & mask;
+        int term;
+        while ((term = terms[slot]) != EMPTY) {
+            if (hashes[slot] == hash && dictionary.matches(term, word, length)) {
+                counts[slot] += delta;
+                totalCount += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        addMissing(slot, dictionary.intern(word, length, wordHash), hash, delta);
+    }
+
+    /**
+     * Adds the given amount to the count of the word stored in a slot of
+     * another table. When both tables share a dictionary the word is matched
+     * by id alone.
+     *
+     * @param other the table holding the word
+     * @param otherSlot the occupied slot of the word in the other table
+     * @param delta the amount to add
+     */
+    public void increment(WordCountTable other, int otherSlot, int delta) {
+        if (other.dictionary != dictionary) {
+            increment(other.keyAt(otherSlot), delta);
+            return;
+        }
+        int id = other.terms[otherSlot];
+        int hash = other.hashes[otherSlot];
+        int slot = hash & mask;
+        int term;
+        while ((term = terms[slot]) != EMPTY) {
+            if (term == id) {
+                add(slot, delta);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        addMissing(slot, id, hash, delta);
+    }
+
+    /**
+     * Adds the given amount to the count of a word of this table's dictionary,
+     * given by id.
+     */
+    void incrementTerm(int term, int delta) {
+        int hash = spread(dictionary.hashOf(term));
+        int slot = hash & mask;
+        int current;
+        while ((current = terms[slot]) != EMPTY) {
+            if (current == term) {
+                add(slot, delta);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        addMissing(slot, term, hash, delta);
+    }
+
+    /**
+     * Returns the count of a word, or 0 if the word is not present.
+     *
+     * @param key the word to look up
+     * @return the number of occurrences recorded for the word
+     */
+    public int get(String key) {
+        int hash = spread(key.hashCode());
+        int count = find(terms, hashes, counts, hash, key);
+        if (count != 0) return count;
+        // Each array is read once, so a lookup never mixes the arrays of two resizes
+        int[] previousTerms = oldTerms;
+        int[] previousHashes = oldHashes;
+        int[] previousCounts = oldCounts;
+        if (previousTerms == null || previousHashes == null || previousCounts == null) return 0;
+        return find(previousTerms, previousHashes, previousCounts, hash, key);
+    }
+
+    private int find(int[] slotTerms, int[] slotHashes, int[] slotCounts, int hash, String key) {
+        int slotMask = slotTerms.length - 1;
+        int slot = hash & slotMask;
+        int term;
+        while ((term = slotTerms[slot]) != EMPTY) {
+            if (slotHashes[slot] == hash && dictionary.matches(term, key)) {
+                return slotCounts[slot];
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the slot holding a lowercase ASCII word held in a buffer, or -1
+     * if the word is not present. The slot stays put until the next insertion.
+     *
+     * @param word the buffer holding the word's bytes
+     * @param length the number of bytes of the word
+     * @param wordHash the word's {@link String#hashCode()}
+     */
+    public int slotOf(byte[] word, int length, int wordHash) {
+        requireResized();
+        int hash = spread(wordHash);
+        int slot = hash & mask;
+        int term;
+        while ((term = terms[slot]) != EMPTY) {
+            if (hashes[slot] == hash && dictionary.matches(term, word, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds every count of another table into this one, then completes any
+     * resize of this table. The other table is only read.
+     *
+     * @param other the table to merge from, no longer being resized
+     */
+    public void mergeFrom(WordCountTable other) {
+        for (int slot = 0; slot < other.capacity(); slot++) {
+            if (other.terms[slot] != EMPTY) {
+                increment(other, slot, other.counts[slot]);
+            }
+        }
+        finishResize();
+    }
+
+    /**
+     * Copies the table contents into freshly allocated entries.
+     *
+     * @return one entry per distinct word, in slot order
+     */
+    public HashEntry[] toEntries() {
+        requireResized();
+        HashEntry[] entries = new HashEntry[size];
+        int i = 0;
+        for (int slot = 0; slot < terms.length; slot++) {
+            if (terms[slot] != EMPTY) {
+                entries[i++] = new HashEntry(dictionary.term(terms[slot]), counts[slot]);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the occupied slots ordered by word.
+     */
+    public int[] sortedSlots() {
+        requireResized();
+        int[] sorted = new int[size];
+        int i = 0;
+        for (int slot = 0; slot < terms.length; slot++) {
+            if (terms[slot] != EMPTY) {
+                sorted[i++] = slot;
+            }
+        }
+        mergeSort(sorted, new int[sorted.length], 0, sorted.length);
+        return sorted;
+    }
+
+    /**
+     * Removes every word and shrinks the table back to its initial capacity,
+     * so that a cleared table fits the memory budget it was spilled for. A
+     * private dictionary is emptied as well.
+     */
+    public void clear() {
+        oldTerms = oldHashes = oldCounts = null;
+        if (terms.length != initialCapacity) {
+            allocate(initialCapacity);
+        } else {
+            Arrays.fill(terms, EMPTY);
+            Arrays.fill(counts, 0);
+        }
+        size = 0;
+        totalCount = 0;
+        if (ownsDictionary) {
+            dictionary.clear();
+        }
+    }
+
+    /**
+     * Returns a rough estimate of the heap used by the table: its slot arrays,
+     * plus its words when the dictionary is private. Words in the shared
+     * dictionary are not counted, since other tables use them too.
+     */
+    public long estimatedMemoryUsage() {
+        long slots = (long) (terms.length + (oldTerms != null ? oldTerms.length : 0)) * BYTES_PER_SLOT;
+        return ownsDictionary ? slots + dictionary.estimatedMemoryUsage() : slots;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns the number of slots; slots in {@code [0, capacity())} can be
+     * inspected with {@link #isOccupied(int)}, {@link #termAt(int)} and
+     * {@link #countAt(int)}. The slots stay put until the next insertion.
+     *
+     * @throws IllegalStateException if a resize is still in progress
+     */
+    public int capacity() {
+        requireResized();
+        return terms.length;
+    }
+
+    public boolean isOccupied(int slot) {
+        return terms[slot] != EMPTY;
+    }
+
+    /**
+     * Returns the dictionary id of the word stored in an occupied slot.
+     */
+    public int termAt(int slot) {
+        return terms[slot];
+    }
+
+    /**
+     * Returns the word stored in a slot as a new String, or null if the slot is empty.
+     */
+    public String keyAt(int slot) {
+        return terms[slot] == EMPTY ? null : dictionary.term(terms[slot]);
+    }
+
+    public int countAt(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * Returns how many slots a lookup of the word stored in an occupied slot
+     * probes, 1 when the word sits in its home slot.
+     */
+    public int probeLength(int slot) {
+        return ((slot - (hashes[slot] & mask)) & mask) + 1;
+    }
+
+    /**
+     * Compares the words stored in two occupied slots.
+     */
+    public int compareKeys(int slot, int otherSlot) {
+        return dictionary.compare(terms[slot], terms[otherSlot]);
+    }
+
+    private void add(int slot, int delta) {
+        counts[slot] += delta;
+        totalCount += delta;
+        if (counts[slot] == 0) {
+            // A moved word must not be left behind in the previous arrays
+            finishResize();
+            removeAt(slot);
+        }
+    }
+
+    /**
+     * Adds to the count of a word that is not in the current arrays: in place
+     * if a resize in progress has not moved it yet, otherwise by inserting it
+     * at the given empty slot.
+     */
+    private void addMissing(int slot, int term, int hash, int delta) {
+        if (oldTerms != null) {
+            int oldSlot = hash & oldMask;
+            int oldTerm;
+            while ((oldTerm = oldTerms[oldSlot]) != EMPTY) {
+                if (oldTerm == term) {
+                    oldCounts[oldSlot] += delta;
+                    totalCount += delta;
+                    if (oldCounts[oldSlot] == 0) {
+                        finishResize();
+                        removeAt(slotOfTerm(term, hash));
+                    }
+                    return;
+                }
+                oldSlot = (oldSlot + 1) & oldMask;
+            }
+        }
+        insertAt(slot, term, hash, delta);
+    }
+
+    private void insertAt(int slot, int term, int hash, int delta) {
+        terms[slot] = term;
+        hashes[slot] = hash;
+        counts[slot] = delta;
+        totalCount += delta;
+        if (oldTerms != null) {
+            migrate();
+        }
+        if (++size > threshold) {
+            resize();
+        }
+    }
+
+    private int slotOfTerm(int term, int hash) {
+        int slot = hash & mask;
+        while (terms[slot] != term) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and shifts later entries of the same probe run back, so
+     * lookups never stop early at the hole.
+     */
+    private void removeAt(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (terms[next] != EMPTY) {
+            int ideal = hashes[next] & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                terms[hole] = terms[next];
+                hashes[hole] = hashes[next];
+                counts[hole] = counts[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        terms[hole] = EMPTY;
+        counts[hole] = 0;
+        size--;
+    }
+
+    /**
+     * Starts moving the words to arrays of twice the capacity. The words are
+     * moved by {@link #migrate()}; with the load factor of 1/2, the new arrays
+     * receive at least half their old capacity of insertions before they fill
+     * up, so moving {@link #MIGRATION_STEP} slots per insertion always
+     * completes one resize before the next begins.
+     */
+    private void resize() {
+        long start = Metrics.start();
+        finishResize();
+        oldTerms = terms;
+        oldHashes = hashes;
+        oldCounts = counts;
+        oldMask = mask;
+        migrated = 0;
+        allocate(oldTerms.length * 2);
+        Metrics.recordResize(start);
+    }
+
+    /**
+     * Moves the next few slots of the previous arrays into the current ones.
+     * Moved words are left in the previous arrays so probe sequences through
+     * them stay intact; lookups find the moved copy first.
+     */
+    private void migrate() {
+        int end = Math.min(migrated + MIGRATION_STEP, oldTerms.length);
+        for (; migrated < end; migrated++) {
+            if (oldTerms[migrated] != EMPTY) {
+                place(oldTerms[migrated], oldHashes[migrated], oldCounts[migrated]);
+            }
+        }
+        if (migrated == oldTerms.length) {
+            oldTerms = oldHashes = oldCounts = null;
+        }
+    }
+
+    /**
+     * Moves every word still held by the previous arrays of a resize. Called by
+     * the thread filling the table once it is done writing, so that readers
+     * can walk the slots and never modify the table.
+     */
+    public void finishResize() {
+        while (oldTerms != null) {
+            migrate();
+        }
+    }
+
+    private void requireResized() {
+        if (oldTerms != null) {
+            throw new IllegalStateException("The word table is still being resized; call finishResize() first.");
+        }
+    }
+
+    /**
+     * Stores a word that is known to be absent from the current arrays.
+     */
+    private void place(int term, int hash, int count) {
+        int slot = hash & mask;
+        while (terms[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        terms[slot] = term;
+        hashes[slot] = hash;
+        counts[slot] = count;
+    }
+
+    private void allocate(int capacity) {
+        if (capacity > MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Word table cannot grow beyond " + MAXIMUM_CAPACITY + " slots.");
+        }
+        terms = new int[capacity];
+        Arrays.fill(terms, EMPTY);
+        hashes = new int[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+        threshold = capacity / 2;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity / 2 < expectedSize && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void mergeSort(int[] slots, int[] buffer, int from, int to) {
+        if (to - from < 2) return;
+        int middle = (from + to) >>> 1;
+        mergeSort(slots, buffer, from, middle);
+        mergeSort(slots, buffer, middle, to);
+        System.arraycopy(slots, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareKeys(buffer[left], buffer[right]) <= 0)) {
+                slots[i] = buffer[left++];
+            } else {
+                slots[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Mixes the high bits of a String-style polynomial hash into the low bits
+     * used for slot selection.
+     */
+    static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
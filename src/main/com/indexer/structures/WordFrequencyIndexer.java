@@ -1,144 +1,386 @@
 package com.indexer.structures;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.stream.Stream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
 import com.indexer.enums.SortAlgorithm;
-import com.indexer.models.HashBucket;
-import com.indexer.models.HashBucketNode;
+import com.indexer.metrics.Metrics;
 import com.indexer.models.HashEntry;
+import com.indexer.sorting_algorithms.TopKSelection;
 import com.indexer.utils.TFIDFCalculator;
+import com.indexer.utils.WordTokenizer;
 
 public class WordFrequencyIndexer {
-    private HashBucket[] buckets;
+    private WordCountTable table;
     private String fileName;
-    private int totalWords;
-    private int totalWordCount;
     private double tfIdfScore;
-    private static final int INITIAL_BUCKET_SIZE = 16;
-    private static final int LOAD_FACTOR_THRESHOLD = 8;
-    private static SortAlgorithm defaultSortAlgorithm = SortAlgorithm.QUICKSORT;
+    private long memoryBudget;
+    private SpilledWordCounts spilled;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int READ_AHEAD_BUFFER_SIZE = 1 << 20;
 
     public WordFrequencyIndexer() {
-        this.buckets = new HashBucket[INITIAL_BUCKET_SIZE];
+        this.table = new WordCountTable();
+    }
+
+    WordFrequencyIndexer(String fileName, WordCountTable table) {
+        this.fileName = fileName;
+        this.table = table;
+    }
+
+    /**
+     * Combines the word counts of several documents into one indexer, as if
+     * they had been read as a single document. The documents are not modified.
+     *
+     * @param name the name of the combined indexer
+     * @param documents the documents to combine, none of them spilled to disk
+     * @return an indexer holding the sum of their counts
+     */
+    public static WordFrequencyIndexer combine(String name, Collection<WordFrequencyIndexer> documents) {
+        WordCountTable combined = new WordCountTable();
+        for (WordFrequencyIndexer document : documents) {
+            combined.mergeFrom(document.toTable());
+        }
+        return new WordFrequencyIndexer(name, combined);
+    }
+
+    private WordCountTable toTable() {
+        if (spilled != null) {
+            throw new IllegalStateException("The word counts of '" + fileName + "' were spilled to disk.");
+        }
+        return table;
     }
 
     /**
      * Populates the indexer with word frequencies from the specified file.
      *
+     * The file is read as raw bytes and tokenized in a single pass; see
+     * {@link WordTokenizer} for the rules that define a word.
+     *
      * @param fileName the name of the file to process
      * @throws IOException if the file cannot be read
      */
     public synchronized void populateFromFile(String fileName) throws IOException {
-        this.fileName = fileName;
         Path filePath = Paths.get("docs", fileName);
-    
-        try (Stream<String> lines = Files.lines(filePath, StandardCharsets.UTF_8)) {
-            lines.flatMap(line -> Stream.of(line.toLowerCase().split("[^a-zA-Z]+")))
-                 .filter(word -> word.length() >= 2 && word.matches("[a-zA-Z]+"))
-                 .forEach(word -> put(word, 1));
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            presize(WordCountTable.estimateDistinctWords(channel.size()));
+            populateFromChannel(fileName, channel);
         }
     }
 
-    private synchronized void put(String key, int value) {
-        if (totalWords / buckets.length >= LOAD_FACTOR_THRESHOLD) {
-            resize();
+    /**
+     * Populates the indexer with word frequencies read from a channel, such as
+     * standard input or a pipe, until the end of the stream.
+     *
+     * The channel is read through a single fixed-size direct buffer, so memory
+     * use does not depend on the length of the stream. The channel is not closed.
+     *
+     * @param name the name reported for the indexed data
+     * @param channel the channel to read from
+     * @return the number of bytes read
+     * @throws IOException if the channel cannot be read
+     */
+    public synchronized long populateFromChannel(String name, ReadableByteChannel channel) throws IOException {
+        return populateFromChannel(name, channel, 0, null);
+    }
+
+    /**
+     * Populates the indexer from a channel, reporting progress while the
+     * stream is still flowing.
+     *
+     * Whenever at least {@code snapshotIntervalMillis} have passed since the
+     * last report, the listener is called with the number of bytes read so far,
+     * on the reading thread and between two buffers, so it may query this
+     * indexer for the counts seen up to that point. Words cut by the end of a
+     * buffer are not counted until they are complete.
+     *
+     * @param name the name reported for the indexed data
+     * @param channel the channel to read from
+     * @param snapshotIntervalMillis the minimum time between two reports
+     * @param snapshotListener the listener to call, or null to disable reports
+     * @return the number of bytes read
+     * @throws IOException if the channel cannot be read
+     */
+    public synchronized long populateFromChannel(String name, ReadableByteChannel channel,
+                                                 long snapshotIntervalMillis, LongConsumer snapshotListener)
+            throws IOException {
+        this.fileName = name;
+        long start = Metrics.start();
+        long tokensBefore = getTotalTokenCount();
+
+        WordTokenizer tokenizer = new WordTokenizer(table);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        long bytesRead = 0;
+        long nextSnapshot = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+        int read;
+        while ((read = channel.read(buffer)) != -1) {
+            bytesRead += read;
+            buffer.flip();
+            tokenizer.feed(buffer);
+            buffer.clear();
+
+            if (memoryBudget > 0 && table.estimatedMemoryUsage() > memoryBudget) {
+                spill();
+            }
+
+            if (snapshotListener != null && System.nanoTime() - nextSnapshot >= 0) {
+                table.finishResize();
+                snapshotListener.accept(bytesRead);
+                nextSnapshot = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+            }
+        }
+        tokenizer.finish();
+        if (spilled != null) {
+            spill();
+            spilled.merge();
         }
+        recordIngestion(bytesRead, tokensBefore, start);
+        return bytesRead;
+    }
 
-        int index = getIndex(key);
-        if (buckets[index] == null) {
-            buckets[index] = new HashBucket();
+    /**
+     * Records the bytes and words just counted and, while the counts are
+     * still in memory, the probe lengths of the table.
+     */
+    private void recordIngestion(long bytes, long tokensBefore, long start) {
+        if (!Metrics.isEnabled()) return;
+        Metrics.recordIngestion(bytes, getTotalTokenCount() - tokensBefore, start);
+        if (spilled == null) {
+            Metrics.recordProbeLengths(table);
         }
-        buckets[index].insert(new HashEntry(key, value));
-        totalWords++;
     }
 
-    private int getIndex(String key) {
-        return Math.abs(hashCode(key) % buckets.length);
+    /**
+     * Limits the memory used by the word table while populating the indexer.
+     *
+     * Whenever the table's estimated size exceeds the budget, its counts are
+     * written to disk as a sorted run and the table is cleared. After the input
+     * has been read the runs are merged, and queries are answered by scanning
+     * the merged counts instead of probing the table. The table keeps its words
+     * in a private dictionary so that spilling releases them. Such an indexer
+     * cannot be saved with {@link IndexStore} or added to a search.
+     *
+     * @param bytes the budget in bytes, or 0 for no limit
+     */
+    public synchronized void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+        if (bytes > 0 && table.size() == 0) {
+            table = WordCountTable.withPrivateDictionary();
+        }
     }
 
-    private int hashCode(String s) {
-        int hash = 0;
-        int prime = 31;
-        for (int i = 0; i < s.length(); i++) {
-            hash = prime * hash + s.charAt(i);
+    /**
+     * Grows the word table ahead of time for the given number of distinct
+     * words, so a large document does not go through many resizes. Ignored
+     * under a memory budget, where the table must stay small.
+     *
+     * @param expectedDistinctWords the expected vocabulary size, e.g. from
+     *                              {@link WordCountTable#estimateDistinctWords(long)}
+     */
+    public synchronized void presize(int expectedDistinctWords) {
+        if (memoryBudget == 0) {
+            table.ensureCapacity(expectedDistinctWords);
         }
-        return hash;
     }
 
-    private synchronized void resize() {
-        HashBucket[] oldBuckets = buckets;
-        buckets = new HashBucket[oldBuckets.length * 2];
-        totalWords = 0;
+    private void spill() throws IOException {
+        if (spilled == null) {
+            spilled = new SpilledWordCounts(memoryBudget);
+        }
+        table.finishResize();
+        spilled.spill(table);
+    }
 
-        for (HashBucket bucket : oldBuckets) {
-            if (bucket != null) {
-                HashBucketNode currentNode = bucket.getHead();
-                while (currentNode != null) {
-                    put(currentNode.getData().getKey(), currentNode.getData().getValue());
-                    currentNode = currentNode.getNext();
+    /**
+     * Populates the indexer with word frequencies from the specified file,
+     * tokenizing memory-mapped chunks of the file on several threads.
+     *
+     * The resulting counts are identical to those of {@link #populateFromFile(String)}.
+     *
+     * @param fileName the name of the file to process
+     * @param parallelism the number of threads to use; 1 or less, or a memory budget, reads the file sequentially
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized void populateFromFile(String fileName, int parallelism) throws IOException {
+        if (parallelism <= 1 || memoryBudget > 0) {
+            populateFromFile(fileName);
+            return;
+        }
+        this.fileName = fileName;
+        long start = Metrics.start();
+        long tokensBefore = getTotalTokenCount();
+        Path filePath = Paths.get("docs", fileName);
+        WordCountTable counted = ParallelWordCounter.count(filePath, parallelism);
+        if (table.size() == 0) {
+            table = counted;
+        } else {
+            table.mergeFrom(counted);
+        }
+        recordIngestion(Metrics.isEnabled() ? Files.size(filePath) : 0, tokensBefore, start);
+    }
+
+    /**
+     * Populates the indexer with word frequencies from the specified file.
+     * When the file is read sequentially and an executor is given, the next
+     * block of the file is read on that executor while the current one is
+     * tokenized, using two fixed buffers.
+     *
+     * The resulting counts are identical to those of {@link #populateFromFile(String)}.
+     *
+     * @param fileName the name of the file to process
+     * @param parallelism the number of threads to use; 1 or less, or a memory budget, reads the file sequentially
+     * @param readAhead the executor used to read ahead, or null to read and tokenize on the calling thread
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized void populateFromFile(String fileName, int parallelism, Executor readAhead)
+            throws IOException {
+        if (readAhead == null || parallelism > 1 || memoryBudget > 0) {
+            populateFromFile(fileName, parallelism);
+            return;
+        }
+        this.fileName = fileName;
+        long start = Metrics.start();
+        long tokensBefore = getTotalTokenCount();
+        long bytesRead = 0;
+
+        WordTokenizer tokenizer = new WordTokenizer(table);
+        try (FileChannel channel = FileChannel.open(Paths.get("docs", fileName), StandardOpenOption.READ)) {
+            presize(WordCountTable.estimateDistinctWords(channel.size()));
+            ByteBuffer filling = ByteBuffer.allocateDirect(READ_AHEAD_BUFFER_SIZE);
+            ByteBuffer ready = ByteBuffer.allocateDirect(READ_AHEAD_BUFFER_SIZE);
+            CompletableFuture<Integer> pending = readAsync(channel, filling, readAhead);
+            try {
+                int read;
+                while ((read = await(pending)) != -1) {
+                    bytesRead += read;
+                    ByteBuffer filled = filling;
+                    filling = ready;
+                    ready = filled;
+
+                    filling.clear();
+                    pending = readAsync(channel, filling, readAhead);
+                    ready.flip();
+                    tokenizer.feed(ready);
                 }
+            } finally {
+                // The channel must not be closed under a read that is still running
+                pending.exceptionally(e -> -1).join();
+            }
+        }
+        tokenizer.finish();
+        recordIngestion(bytesRead, tokensBefore, start);
+    }
+
+    private static CompletableFuture<Integer> readAsync(FileChannel channel, ByteBuffer buffer, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return channel.read(buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private static int await(CompletableFuture<Integer> read) throws IOException {
+        try {
+            return read.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
             }
+            throw e;
         }
     }
 
     /**
      * Returns the top N most frequent words in the indexer.
      *
+     * The words are selected straight from the word table with a bounded
+     * heap instead of sorting the whole vocabulary. Words with equal counts
+     * are ranked alphabetically.
+     *
      * @param n the number of top frequencies to retrieve
      * @return an array of the most frequent words
      */
     public HashEntry[] getTopFrequencies(int n) {
-        return getTopFrequencies(n, defaultSortAlgorithm);
-    }
-
-    public HashEntry[] getTopFrequencies(int n, SortAlgorithm sortAlgorithm) {
-        HashEntry[] allEntries = toArray();
-        sortAlgorithm.sort(allEntries);
-        return n > allEntries.length ? allEntries : Arrays.copyOf(allEntries, n);
+        if (spilled != null) {
+            try {
+                return spilled.getTopFrequencies(n);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return TopKSelection.selectTopK(table, n);
     }
 
-    private HashEntry[] toArray() {
-        HashEntry[] entries = new HashEntry[totalWords];
-        int i = 0;
-        for (HashBucket bucket : buckets) {
-            if (bucket == null) continue;
-            HashBucketNode currentNode = bucket.getHead();
-            while (currentNode != null) {
-                entries[i++] = currentNode.getData();
-                currentNode = currentNode.getNext();
+    /**
+     * Returns every word occurring at least the given number of times, in no
+     * particular order.
+     *
+     * @param minimum the smallest count returned
+     * @return one entry per qualifying word
+     */
+    public HashEntry[] getFrequenciesAtLeast(int minimum) {
+        if (spilled != null) {
+            throw new IllegalStateException("The word counts of '" + fileName + "' were spilled to disk.");
+        }
+        List<HashEntry> entries = new ArrayList<>();
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (table.isOccupied(slot) && table.countAt(slot) >= minimum) {
+                entries.add(new HashEntry(table.keyAt(slot), table.countAt(slot)));
             }
         }
-        return entries;
+        return entries.toArray(new HashEntry[0]);
+    }
+
+    /**
+     * Returns the top N most frequent words by fully sorting the vocabulary
+     * with the given algorithm.
+     *
+     * @param n the number of top frequencies to retrieve
+     * @param sortAlgorithm the algorithm used to sort every word
+     * @return an array of the most frequent words
+     */
+    public HashEntry[] getTopFrequencies(int n, SortAlgorithm sortAlgorithm) {
+        HashEntry[] allEntries = sortAlgorithm.sort(toTable());
+        return n > allEntries.length ? allEntries : Arrays.copyOf(allEntries, n);
     }
 
     /**
      * Retrieves the frequency of a specific word in the indexed data.
      *
-     * This method calculates the hash index of the provided word and checks
-     * the corresponding bucket for its occurrence. If the word is found,
-     * its frequency is returned; otherwise, it returns 0.
+     * This method probes the word table starting at the slot selected by the
+     * word's hash. If the word is found, its frequency is returned; otherwise,
+     * it returns 0. Counts spilled to disk are scanned instead.
      *
      * @param word the word whose frequency needs to be retrieved
      * @return the frequency of the word if found, or 0 if the word is not present
      */
     public int getWordFrequency(String word) {
-        int index = getIndex(word);
-        if (buckets[index] == null) return 0;
-
-        HashBucketNode current = buckets[index].getHead();
-        while (current != null) {
-            if (current.getData().getKey().equals(word)) {
-                return current.getData().getValue();
+        if (spilled != null) {
+            try {
+                return spilled.getWordFrequency(word);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            current = current.getNext();
         }
-        return 0;
+        return table.get(word);
     }
 
     /**
@@ -150,12 +392,13 @@ public class WordFrequencyIndexer {
      * @return the calculated TF-IDF score
      */
     public synchronized double calculateTFIDF(String[] terms, int totalDocuments, int documentsWithTerm) {
+        long start = Metrics.start();
         double[] termFrequencies = new double[terms.length];
         boolean containsAllTerms = true;
 
         for (int i = 0; i < terms.length; i++) {
             int frequency = getWordFrequency(terms[i]);
-            termFrequencies[i] = TFIDFCalculator.calculateTermFrequency(frequency, totalWordCount);
+            termFrequencies[i] = TFIDFCalculator.calculateTermFrequency(frequency, getTotalTokenCount());
             if (frequency == 0) {
                 containsAllTerms = false;
             }
@@ -169,9 +412,21 @@ public class WordFrequencyIndexer {
             this.tfIdfScore = 0.0;
         }
 
+        Metrics.recordScoring(start);
         return this.tfIdfScore;
     }
 
+    /**
+     * Returns the number of words counted, including repeated occurrences.
+     */
+    public long getTotalTokenCount() {
+        return spilled != null ? spilled.getTotalCount() : table.getTotalCount();
+    }
+
+    WordCountTable getTable() {
+        return table;
+    }
+
     public String getFileName() {
         return fileName;
     }
@@ -5,11 +5,30 @@ import java.util.Arrays;
 public class ArgumentValidator {
 
     public static void validateFreqArguments(String[] args) {
+        if (args.length > 1 && args[1].startsWith("--approximate")) {
+            validateApproximateFreqArguments(args);
+            return;
+        }
         if (args.length != 3 || !isPositiveNumber(args[1])) {
             throw new IllegalArgumentException("Usage: --freq N FILE. N must be a positive number.");
         }
     }
 
+    private static void validateApproximateFreqArguments(String[] args) {
+        boolean valid = args.length == 5 && isPositiveNumber(args[3]);
+        if (valid && args[1].equals("--approximate")) {
+            valid = isPositiveNumber(args[2]) && Long.parseLong(args[2]) > 0;
+        } else if (valid && args[1].equals("--approximate-error")) {
+            valid = args[2].matches("0?\\.\\d*[1-9]\\d*");
+        } else {
+            valid = false;
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Usage: --freq --approximate KB N FILE or "
+                    + "--freq --approximate-error E N FILE. KB and N must be positive numbers, E a fraction such as 0.001.");
+        }
+    }
+
     public static void validateFreqWordArguments(String[] args) {
         if (args.length != 3 || isNumberOrPunctuation(args[1])) {
             throw new IllegalArgumentException("Usage: --freq-word WORD FILE. WORD must be valid.");
@@ -17,8 +36,119 @@ public class ArgumentValidator {
     }
 
     public static void validateSearchArguments(String[] args) {
-        if (args.length < 3 || areAllNumbersOrPunctuation(args[1].split("\\s+"))) {
-            throw new IllegalArgumentException("Usage: --search TERM FILE [FILE ...]. TERM must be valid.");
+        int termIndex = searchTermIndex(args);
+        // Files are optional with --top, which then searches the whole corpus index
+        int minimumLength = args.length > 1 && args[1].equals("--top") ? termIndex + 1 : termIndex + 2;
+        if (args.length < minimumLength || areAllNumbersOrPunctuation(args[termIndex].split("\\s+"))) {
+            throw new IllegalArgumentException("Usage: --search [--phrase | --near N] TERM FILE [FILE ...] "
+                    + "or --search --top K TERM [FILE ...]. TERM must be valid.");
+        }
+        if (termIndex != 1 && !args[1].equals("--top") && WordTokenizer.words(args[termIndex]).length == 0) {
+            throw new IllegalArgumentException("The phrase '" + args[termIndex]
+                    + "' has no word of at least two letters a-z, so it can never match.");
+        }
+    }
+
+    /**
+     * Returns the index of the search terms, after the optional phrase or
+     * top-K mode of a --search command.
+     */
+    public static int searchTermIndex(String[] args) {
+        if (args.length > 1 && args[1].equals("--phrase")) return 2;
+        if (args.length > 1 && args[1].equals("--near")) {
+            if (args.length < 3 || !isPositiveNumber(args[2])) {
+                throw new IllegalArgumentException("Usage: --search --near N TERM FILE [FILE ...]. N must be a number.");
+            }
+            return 3;
+        }
+        if (args.length > 1 && args[1].equals("--top")) {
+            if (args.length < 3 || !isPositiveNumber(args[2]) || Integer.parseInt(args[2]) == 0) {
+                throw new IllegalArgumentException("Usage: --search --top K TERM [FILE ...]. K must be a positive number.");
+            }
+            return 3;
+        }
+        return 1;
+    }
+
+    public static void validateBuildIndexArguments(String[] args) {
+        int firstFile = args.length > 1 && args[1].equals("--positions") ? 2 : 1;
+        if (args.length <= firstFile) {
+            throw new IllegalArgumentException("Usage: --build-index [--positions] FILE [FILE ...].");
+        }
+    }
+
+    public static void validateBatchArguments(String[] args) {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: --batch QUERIES_FILE.");
+        }
+    }
+
+    public static void validateServeArguments(String[] args) {
+        if (args.length > 2 || (args.length == 2 && (!isPositiveNumber(args[1]) || Integer.parseInt(args[1]) > 65535))) {
+            throw new IllegalArgumentException("Usage: --serve [PORT]. PORT must be a valid port number.");
+        }
+    }
+
+    public static void validateShardWorkerArguments(String[] args) {
+        if (args.length < 3 || !isPortNumber(args[1])) {
+            throw new IllegalArgumentException("Usage: --shard-worker PORT FILE [FILE ...]. PORT must be a valid port number.");
+        }
+    }
+
+    /**
+     * Validates a query sent to shards with --shards, which accepts --freq
+     * without a file for the whole corpus and --search without files for
+     * every document, but no phrase search or approximate counts.
+     */
+    public static void validateShardedArguments(String[] args) {
+        boolean valid;
+        if (args[0].equals("--freq")) {
+            valid = (args.length == 2 || args.length == 3) && isPositiveNumber(args[1]);
+        } else if (args[0].equals("--search")) {
+            int termIndex = searchTermIndex(args);
+            valid = (termIndex == 1 || args[1].equals("--top")) && args.length > termIndex
+                    && !areAllNumbersOrPunctuation(args[termIndex].split("\\s+"));
+        } else {
+            valid = false;
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Usage: --shards PORT[,PORT ...] --freq N [FILE] or "
+                    + "--shards PORT[,PORT ...] --search [--top K] TERM [FILE ...]. N must be a positive number and TERM valid.");
+        }
+    }
+
+    public static void validateThreadsArgument(String[] args, int optionIndex) {
+        if (optionIndex + 1 >= args.length || !isPositiveNumber(args[optionIndex + 1])
+                || Integer.parseInt(args[optionIndex + 1]) == 0) {
+            throw new IllegalArgumentException("Usage: --threads N. N must be a positive number.");
+        }
+    }
+
+    public static void validateSnapshotIntervalArgument(String[] args, int optionIndex) {
+        if (optionIndex + 1 >= args.length || !isPositiveNumber(args[optionIndex + 1])
+                || Long.parseLong(args[optionIndex + 1]) == 0) {
+            throw new IllegalArgumentException("Usage: --snapshot-interval SECONDS. SECONDS must be a positive number.");
+        }
+    }
+
+    public static void validateMemoryBudgetArgument(String[] args, int optionIndex) {
+        if (optionIndex + 1 >= args.length || !isPositiveNumber(args[optionIndex + 1])
+                || Long.parseLong(args[optionIndex + 1]) == 0) {
+            throw new IllegalArgumentException("Usage: --memory-budget MB. MB must be a positive number.");
+        }
+    }
+
+    public static void validateShardsArgument(String[] args, int optionIndex) {
+        if (optionIndex + 1 >= args.length
+                || !Arrays.stream(args[optionIndex + 1].split(",", -1)).allMatch(ArgumentValidator::isPortNumber)) {
+            throw new IllegalArgumentException("Usage: --shards PORT[,PORT ...]. Each PORT must be a valid port number.");
+        }
+    }
+
+    public static void validateMetricsArgument(String[] args, int optionIndex) {
+        if (optionIndex + 1 >= args.length
+                || !(args[optionIndex + 1].equals("json") || args[optionIndex + 1].equals("jmx"))) {
+            throw new IllegalArgumentException("Usage: --metrics json|jmx.");
         }
     }
 
@@ -26,6 +156,10 @@ public class ArgumentValidator {
         return str.matches("\\d+");
     }
 
+    private static boolean isPortNumber(String str) {
+        return str.matches("\\d{1,5}") && Integer.parseInt(str) > 0 && Integer.parseInt(str) <= 65535;
+    }
+
     private static boolean isNumberOrPunctuation(String str) {
         return str.matches("[0-9\\p{Punct}]+");
     }
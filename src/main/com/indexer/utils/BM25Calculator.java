@@ -0,0 +1,61 @@
+package com.indexer.utils;
+
+/**
+ * Okapi BM25 relevance, the sum over the query terms of an inverse document
+ * frequency times a term frequency component that saturates as a term
+ * repeats and is normalized by the document's length.
+ */
+public class BM25Calculator {
+    public static final double K1 = 1.2;
+    public static final double B = 0.75;
+
+    /**
+     * Calculates the inverse document frequency of a term, in the variant that
+     * is never negative.
+     *
+     * @param totalDocuments the total number of documents in the collection
+     * @param documentsWithTerm the number of documents containing the term
+     * @return the inverse document frequency
+     */
+    public static double calculateInverseDocumentFrequency(int totalDocuments, int documentsWithTerm) {
+        return Math.log(1 + (totalDocuments - documentsWithTerm + 0.5) / (documentsWithTerm + 0.5));
+    }
+
+    /**
+     * Calculates the term frequency component of a term in a document. It
+     * grows with the term frequency and shrinks with the document length, so
+     * the largest frequency and the shortest length of a group of documents
+     * give an upper bound for all of them.
+     *
+     * @param termFrequency the number of occurrences of the term in the document
+     * @param documentLength the total number of words in the document
+     * @param averageDocumentLength the average number of words per document
+     * @return the term frequency component
+     */
+    public static double calculateTermFrequency(int termFrequency, long documentLength,
+                                                double averageDocumentLength) {
+        double norm = K1 * (1 - B + B * documentLength / averageDocumentLength);
+        return termFrequency * (K1 + 1) / (termFrequency + norm);
+    }
+
+    /**
+     * Calculates the BM25 score of a document.
+     *
+     * @param termFrequencies the occurrences of each query term in the document
+     * @param documentLength the total number of words in the document
+     * @param averageDocumentLength the average number of words per document
+     * @param totalDocuments the total number of documents in the collection
+     * @param documentsWithTerm the number of documents containing each query term
+     * @return the BM25 score
+     */
+    public static double calculateBM25(int[] termFrequencies, long documentLength, double averageDocumentLength,
+                                       int totalDocuments, int[] documentsWithTerm) {
+        double score = 0.0;
+        for (int i = 0; i < termFrequencies.length; i++) {
+            if (termFrequencies[i] == 0) continue;
+            score += calculateInverseDocumentFrequency(totalDocuments, documentsWithTerm[i])
+                    * calculateTermFrequency(termFrequencies[i], documentLength, averageDocumentLength);
+        }
+        return score;
+    }
+}
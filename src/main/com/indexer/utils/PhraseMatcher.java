@@ -0,0 +1,44 @@
+package com.indexer.utils;
+
+/**
+ * Counts phrase occurrences from the word positions of each phrase term.
+ *
+ * A phrase occurs at position p if its first term is at p and each following
+ * term occurs after the previous one with at most {@code slop} other words in
+ * between. A slop of 0 matches the exact phrase. Matches are counted by their
+ * starting position, working backwards from the last term: a position of a
+ * term is kept only if some kept position of the next term lies within reach.
+ * Each list is walked once, so the cost is linear in the number of positions.
+ */
+public class PhraseMatcher {
+
+    /**
+     * Counts the starting positions of the phrase.
+     *
+     * @param positions the ascending positions of each phrase term, in phrase order
+     * @param slop the maximum number of other words between two consecutive terms
+     * @return the number of positions at which the phrase starts
+     */
+    public static int countMatches(int[][] positions, int slop) {
+        if (positions.length == 0) return 0;
+        int[] reachable = positions[positions.length - 1];
+        int reachableCount = reachable.length;
+        for (int t = positions.length - 2; t >= 0 && reachableCount > 0; t--) {
+            int[] current = positions[t];
+            int[] kept = new int[current.length];
+            int keptCount = 0;
+            int next = 0;
+            for (int position : current) {
+                while (next < reachableCount && reachable[next] <= position) {
+                    next++;
+                }
+                if (next < reachableCount && reachable[next] - position <= slop + 1) {
+                    kept[keptCount++] = position;
+                }
+            }
+            reachable = kept;
+            reachableCount = keptCount;
+        }
+        return reachableCount;
+    }
+}
@@ -0,0 +1,110 @@
+package com.indexer.utils;
+
+import com.indexer.models.ApproximateEntry;
+import com.indexer.models.HashEntry;
+import com.indexer.models.SearchResult;
+
+/**
+ * Formats query results as the text printed by the command line and sent by
+ * the query server, so both produce identical output.
+ */
+public class ResultFormatter {
+
+    public static String formatTopFrequencies(int n, String fileName, HashEntry[] topFrequencies) {
+        StringBuilder output = new StringBuilder();
+        output.append(String.format("%n-> The %d most frequent words in the file '%s' are:%n", n, fileName));
+        for (int i = 0; i < n; i++) {
+            if (i >= topFrequencies.length || topFrequencies[i] == null) {
+                output.append(String.format("%nWarning: the document does not contain more words to display!%n"));
+                break;
+            }
+            output.append(String.format("%d) '%s' occurred %d time(s).%n", i + 1,
+                    topFrequencies[i].getKey(), topFrequencies[i].getValue()));
+        }
+        return output.toString();
+    }
+
+    /**
+     * Formats the most frequent words of every document held by a set of shards.
+     */
+    public static String formatShardedTopFrequencies(int n, int documentCount, int shardCount,
+                                                     HashEntry[] topFrequencies) {
+        StringBuilder output = new StringBuilder();
+        output.append(String.format("%n-> The %d most frequent words in %d document(s) across %d shard(s) are:%n",
+                n, documentCount, shardCount));
+        for (int i = 0; i < n; i++) {
+            if (i >= topFrequencies.length) {
+                output.append(String.format("%nWarning: the documents do not contain more words to display!%n"));
+                break;
+            }
+            output.append(String.format("%d) '%s' occurred %d time(s).%n", i + 1,
+                    topFrequencies[i].getKey(), topFrequencies[i].getValue()));
+        }
+        return output.toString();
+    }
+
+    public static String formatSnapshot(int n, long bytesRead, HashEntry[] topFrequencies) {
+        StringBuilder output = new StringBuilder();
+        output.append(String.format("%n-> Snapshot after %.1f MB: the %d most frequent words so far are:%n",
+                bytesRead / (1024.0 * 1024.0), n));
+        for (int i = 0; i < topFrequencies.length && i < n; i++) {
+            output.append(String.format("%d) '%s' occurred %d time(s).%n", i + 1,
+                    topFrequencies[i].getKey(), topFrequencies[i].getValue()));
+        }
+        return output.toString();
+    }
+
+    /**
+     * Formats approximate word counts, each with the interval that contains
+     * its true count, followed by the error bounds of the whole list.
+     */
+    public static String formatApproximateFrequencies(int n, String fileName, ApproximateEntry[] topFrequencies,
+                                                      long memoryUsage, long errorBound, double confidence,
+                                                      long unlistedBound) {
+        StringBuilder output = new StringBuilder();
+        output.append(String.format("%n-> The %d most frequent words in the file '%s' (approximate, %d KB sketch) are:%n",
+                n, fileName, (memoryUsage + 1023) / 1024));
+        appendApproximateEntries(output, n, topFrequencies);
+        if (topFrequencies.length < n) {
+            output.append(String.format("%nWarning: the document does not contain more words to display!%n"));
+        }
+        output.append(String.format("Counts are overestimated by at most %d with %.0f%% probability; "
+                + "any other word occurred at most %d time(s).%n", errorBound, confidence * 100, unlistedBound));
+        return output.toString();
+    }
+
+    public static String formatApproximateSnapshot(int n, long bytesRead, ApproximateEntry[] topFrequencies) {
+        StringBuilder output = new StringBuilder();
+        output.append(String.format("%n-> Snapshot after %.1f MB: the %d most frequent words so far are about:%n",
+                bytesRead / (1024.0 * 1024.0), n));
+        appendApproximateEntries(output, n, topFrequencies);
+        return output.toString();
+    }
+
+    private static void appendApproximateEntries(StringBuilder output, int n, ApproximateEntry[] topFrequencies) {
+        for (int i = 0; i < topFrequencies.length && i < n; i++) {
+            output.append(String.format("%d) '%s' occurred about %d time(s) (between %d and %d).%n", i + 1,
+                    topFrequencies[i].getKey(), topFrequencies[i].getEstimate(),
+                    topFrequencies[i].getLowerBound(), topFrequencies[i].getEstimate()));
+        }
+    }
+
+    public static String formatWordFrequency(String word, int frequency, String fileName) {
+        return String.format("%nThe word '%s' appears %d time(s) in the file '%s'.%n", word, frequency, fileName);
+    }
+
+    public static String formatSearchResults(SearchResult[] results) {
+        StringBuilder output = new StringBuilder();
+        output.append(String.format("%n-> Relevant files in descending order:%n"));
+        for (int i = 0; i < results.length; i++) {
+            output.append(String.format("%d) '%s' with relevance %.9f.%n", i + 1,
+                    results[i].getFileName(), results[i].getScore()));
+        }
+        return output.toString();
+    }
+
+    public static String formatCacheStatistics(long hits, long misses, long evictions, int size) {
+        return String.format("%n# Query cache: %d hit(s), %d miss(es), %d eviction(s), %d entr%s.%n",
+                hits, misses, evictions, size, size == 1 ? "y" : "ies");
+    }
+}
@@ -18,6 +18,23 @@ public class TFIDFCalculator {
         return tf * idf;
     }
 
+    /**
+     * Calculates the average TF-IDF value of a set of terms, using the
+     * document frequency of each term for its own inverse document frequency.
+     *
+     * @param termFrequencies the array of term frequencies for the search terms
+     * @param totalDocuments the total number of documents in the corpus
+     * @param documentsWithTerm the number of documents containing each term
+     * @return the average TF-IDF score of the terms
+     */
+    public static double calculateTFIDF(double[] termFrequencies, int totalDocuments, int[] documentsWithTerm) {
+        double sum = 0.0;
+        for (int i = 0; i < termFrequencies.length; i++) {
+            sum += termFrequencies[i] * calculateInverseDocumentFrequency(totalDocuments, documentsWithTerm[i]);
+        }
+        return sum / termFrequencies.length;
+    }
+
     /**
      * Calculates the term frequency (TF) for a specific term.
      *
@@ -25,7 +42,7 @@ public class TFIDFCalculator {
      * @param totalWords the total number of words in the document
      * @return the term frequency as a double
      */
-    public static double calculateTermFrequency(int termFrequency, int totalWords) {
+    public static double calculateTermFrequency(int termFrequency, long totalWords) {
         return (double) termFrequency / totalWords;
     }
 
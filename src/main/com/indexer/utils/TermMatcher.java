@@ -0,0 +1,214 @@
+package com.indexer.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Counts a fixed set of query terms, and the total number of words, in a
+ * single pass over raw bytes without building a word table.
+ *
+ * The terms are compiled into a trie over the letters a-z. Words follow the
+ * rules of {@link WordTokenizer}, so a term can only match a whole word: the
+ * trie is walked from the root at the start of every word and the word is
+ * counted if the walk ends on a term's node. A walk that leaves the trie
+ * stays dead until the next separator, so no failure links are needed as they
+ * would be for matching inside words. Nothing is allocated while scanning,
+ * unless the matcher also records the position of every occurrence, counted
+ * in words from the start of the input, for phrase queries.
+ */
+public class TermMatcher {
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int ALPHABET_SIZE = 26;
+    private static final int DEAD = -1;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final int[] termStates;
+    private int[] transitions;
+    private final long[] stateCounts;
+    private final int[][] statePositions;
+    private int stateCount = 1;
+
+    private int state;
+    private int length;
+    private long totalTokenCount;
+
+    /**
+     * Compiles the given lowercase terms. Terms that can never be a word, such
+     * as ones shorter than two letters or containing other characters, are
+     * accepted and always counted as 0.
+     *
+     * @param terms the terms to count
+     */
+    public TermMatcher(String[] terms) {
+        this(terms, false);
+    }
+
+    /**
+     * Compiles the given lowercase terms, optionally recording where each
+     * occurrence is.
+     *
+     * @param terms the terms to count
+     * @param recordPositions whether {@link #getPositions(int)} is needed
+     */
+    public TermMatcher(String[] terms, boolean recordPositions) {
+        transitions = new int[ALPHABET_SIZE * 8];
+        Arrays.fill(transitions, DEAD);
+        termStates = new int[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            termStates[i] = insert(terms[i]);
+        }
+        stateCounts = new long[stateCount];
+        statePositions = recordPositions ? new int[stateCount][] : null;
+    }
+
+    /**
+     * Counts the terms in everything that can be read from a channel. The
+     * channel is not closed.
+     *
+     * @param channel the channel to read
+     * @param terms the lowercase terms to count
+     * @return the matcher holding the counts
+     * @throws IOException if the channel cannot be read
+     */
+    public static TermMatcher scan(ReadableByteChannel channel, String[] terms) throws IOException {
+        return scan(channel, terms, false);
+    }
+
+    /**
+     * Counts the terms in everything that can be read from a channel,
+     * optionally recording their positions. The channel is not closed.
+     *
+     * @param channel the channel to read
+     * @param terms the lowercase terms to count
+     * @param recordPositions whether {@link #getPositions(int)} is needed
+     * @return the matcher holding the counts
+     * @throws IOException if the channel cannot be read
+     */
+    public static TermMatcher scan(ReadableByteChannel channel, String[] terms, boolean recordPositions)
+            throws IOException {
+        TermMatcher matcher = new TermMatcher(terms, recordPositions);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            matcher.feed(buffer);
+            buffer.clear();
+        }
+        matcher.finish();
+        return matcher;
+    }
+
+    /**
+     * Scans the remaining bytes of the buffer, leaving its position at the limit.
+     *
+     * @param buffer the bytes to scan
+     */
+    public void feed(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        for (int i = buffer.position(); i < limit; i++) {
+            int lower = buffer.get(i) | 0x20;
+            if (lower >= 'a' && lower <= 'z') {
+                length++;
+                if (state != DEAD) {
+                    state = transitions[state * ALPHABET_SIZE + lower - 'a'];
+                }
+            } else if (length > 0) {
+                endWord();
+            }
+        }
+        buffer.position(limit);
+    }
+
+    /**
+     * Counts the word in progress, if any. Must be called once the input is exhausted.
+     */
+    public void finish() {
+        if (length > 0) {
+            endWord();
+        }
+    }
+
+    /**
+     * Returns the number of occurrences of the term at the given position of
+     * the array this matcher was compiled from.
+     */
+    public int getCount(int termIndex) {
+        int termState = termStates[termIndex];
+        return termState == DEAD ? 0 : (int) stateCounts[termState];
+    }
+
+    /**
+     * Returns the ascending word positions of the term at the given position
+     * of the array this matcher was compiled from.
+     *
+     * @throws IllegalStateException if the matcher does not record positions
+     */
+    public int[] getPositions(int termIndex) {
+        if (statePositions == null) {
+            throw new IllegalStateException("Positions were not recorded.");
+        }
+        int termState = termStates[termIndex];
+        if (termState == DEAD || statePositions[termState] == null) return new int[0];
+        return Arrays.copyOf(statePositions[termState], (int) stateCounts[termState]);
+    }
+
+    /**
+     * Returns the number of words scanned, including repeated occurrences.
+     */
+    public long getTotalTokenCount() {
+        return totalTokenCount;
+    }
+
+    private void endWord() {
+        if (length >= MIN_WORD_LENGTH) {
+            if (state != DEAD) {
+                if (statePositions != null) {
+                    recordPosition();
+                }
+                stateCounts[state]++;
+            }
+            totalTokenCount++;
+        }
+        length = 0;
+        state = 0;
+    }
+
+    private void recordPosition() {
+        int[] positions = statePositions[state];
+        int count = (int) stateCounts[state];
+        if (positions == null) {
+            positions = statePositions[state] = new int[16];
+        } else if (count == positions.length) {
+            positions = statePositions[state] = Arrays.copyOf(positions, count * 2);
+        }
+        positions[count] = (int) totalTokenCount;
+    }
+
+    /**
+     * Adds a term to the trie and returns the state reached at its end, or
+     * {@link #DEAD} if the term can never be a word.
+     */
+    private int insert(String term) {
+        if (term.length() < MIN_WORD_LENGTH) return DEAD;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c < 'a' || c > 'z') return DEAD;
+        }
+
+        int current = 0;
+        for (int i = 0; i < term.length(); i++) {
+            int edge = current * ALPHABET_SIZE + term.charAt(i) - 'a';
+            if (transitions[edge] == DEAD) {
+                if ((stateCount + 1) * ALPHABET_SIZE > transitions.length) {
+                    int oldLength = transitions.length;
+                    transitions = Arrays.copyOf(transitions, oldLength * 2);
+                    Arrays.fill(transitions, oldLength, transitions.length, DEAD);
+                }
+                transitions[edge] = stateCount++;
+            }
+            current = transitions[edge];
+        }
+        return current;
+    }
+}
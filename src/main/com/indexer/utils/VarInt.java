@@ -0,0 +1,65 @@
+package com.indexer.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes unsigned variable-length integers, seven bits per byte
+ * with the high bit set on every byte except the last.
+ */
+public class VarInt {
+
+    /**
+     * Writes a non-negative value using as few bytes as possible.
+     *
+     * @param out the destination
+     * @param value the value to write
+     * @throws IOException if the destination cannot be written
+     */
+    public static void write(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a value written by {@link #write(DataOutput, long)}, advancing the buffer's position.
+     *
+     * @param buffer the source
+     * @return the decoded value
+     */
+    public static long read(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Reads a value written by {@link #write(DataOutput, long)} from a stream.
+     *
+     * @param in the source
+     * @return the decoded value
+     * @throws IOException if the source cannot be read
+     */
+    public static long read(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
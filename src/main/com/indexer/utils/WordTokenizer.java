@@ -0,0 +1,110 @@
+package com.indexer.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.indexer.structures.WordCountTable;
+
+/**
+ * Splits raw bytes into lowercase words and counts them in a word table.
+ *
+ * A word is a run of ASCII letters; every other byte, including the bytes of
+ * multi-byte UTF-8 characters, separates words. Words shorter than two letters
+ * are discarded. Letters are folded to lowercase in a reusable buffer while the
+ * word's hash is computed, so the table is probed without creating a String.
+ * The tokenizer keeps the current word between calls to {@link #feed}, so a
+ * word split across two buffers is counted once.
+ */
+public class WordTokenizer {
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int INITIAL_WORD_CAPACITY = 64;
+
+    private final WordCountTable table;
+    private byte[] word = new byte[INITIAL_WORD_CAPACITY];
+    private int length;
+    private int hash;
+
+    public WordTokenizer(WordCountTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Splits text into the lowercase words this tokenizer would count, in
+     * order. Separators and words shorter than two letters are dropped, so
+     * consecutive words are also consecutive in the word positions of a
+     * document.
+     *
+     * @param text the text to split
+     * @return the words of the text, possibly none
+     */
+    public static String[] words(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            int lower = i < text.length() ? text.charAt(i) | 0x20 : ' ';
+            if (lower >= 'a' && lower <= 'z') {
+                word.append((char) lower);
+            } else {
+                if (word.length() >= MIN_WORD_LENGTH) words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Tokenizes the remaining bytes of the buffer, leaving its position at the limit.
+     *
+     * @param buffer the bytes to tokenize
+     */
+    public void feed(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        for (int i = buffer.position(); i < limit; i++) {
+            int lower = buffer.get(i) | 0x20;
+            if (lower >= 'a' && lower <= 'z') {
+                if (length == word.length) {
+                    word = Arrays.copyOf(word, length * 2);
+                }
+                word[length++] = (byte) lower;
+                hash = 31 * hash + lower;
+            } else if (length > 0) {
+                endWord();
+            }
+        }
+        buffer.position(limit);
+    }
+
+    /**
+     * Counts the word in progress, if any, and completes any resize of the
+     * table. Must be called once the input is exhausted.
+     */
+    public void finish() {
+        if (length > 0) {
+            endWord();
+        }
+        if (table != null) {
+            table.finishResize();
+        }
+    }
+
+    private void endWord() {
+        if (length >= MIN_WORD_LENGTH) {
+            countWord(word, length, hash);
+        }
+        length = 0;
+        hash = 0;
+    }
+
+    /**
+     * Called for every complete word; counts it in the table by default.
+     *
+     * @param word the buffer holding the lowercase word, reused for the next word
+     * @param length the number of bytes of the word
+     * @param hash the word's {@link String#hashCode()}
+     */
+    protected void countWord(byte[] word, int length, int hash) {
+        table.increment(word, length, hash, 1);
+    }
+}